@@ -0,0 +1,338 @@
+package com.java17.programs.redifined.all;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit for a downstream dependency that resizes itself from observed latency and errors (AIMD).
+ *
+ * Every finished call reports its round-trip time and whether it failed:
+ *
+ *   failed, or RTT > baseline * latencyTolerance → multiplicative decrease: limit *= backoffRatio
+ *                                                    (at most once per smoothed RTT, so one slow burst
+ *                                                    doesn't collapse the limit to the floor)
+ *   otherwise, and the limit is actually in use     → additive increase: limit += 1 / limit
+ *                                                    (roughly +1 per round trip of a full window)
+ *
+ * The baseline is the minimum RTT seen over the current and previous window, so a permanent change in
+ * downstream latency becomes the new normal after one or two windows instead of throttling forever.
+ *
+ * Waiting callers sit in one FIFO queue, either parked in acquire() like Semaphore.acquire(), or as a
+ * CompletableFuture from acquireAsync() that is completed when a permit frees up, with no thread waiting at all.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long baselineWindowNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // All state below is guarded by lock
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long smoothedRttNanos;
+    private long currentWindowMinRtt = Long.MAX_VALUE;
+    private long previousWindowMinRtt = Long.MAX_VALUE;
+    private long windowStartNanos = System.nanoTime();
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, double latencyTolerance, long baselineWindowMillis) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Require 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1 || latencyTolerance <= 1) {
+            throw new IllegalArgumentException("Require 0 < backoffRatio < 1 and latencyTolerance > 1");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.baselineWindowNanos = TimeUnit.MILLISECONDS.toNanos(baselineWindowMillis);
+    }
+
+    private static final class Waiter {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        // Guarded by lock: once true the waiter owns an in-flight slot
+        boolean granted;
+    }
+
+    /**
+     * Blocks like Semaphore.acquire() until a permit is free.
+     */
+    public void acquire() throws InterruptedException {
+        Waiter waiter = enqueue();
+        if (waiter == null) {
+            return;
+        }
+        try {
+            waiter.permit.get();
+        } catch (InterruptedException e) {
+            abandon(waiter);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Permit wait failed", e.getCause());
+        }
+    }
+
+    /**
+     * Non-blocking acquire: the returned future completes once a permit is granted, without parking any thread.
+     * With a non-null {@code maxWait} it fails with a TimeoutException if no permit frees up in time;
+     * {@link Duration#ZERO} fails immediately when the limit is reached.
+     *
+     * Dependent stages run on the thread that releases the permit, so keep them short and non-blocking.
+     */
+    public CompletableFuture<Void> acquireAsync(Duration maxWait) {
+        Waiter waiter = enqueue();
+        if (waiter == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (maxWait != null) {
+            if (maxWait.isZero() || maxWait.isNegative()) {
+                expire(waiter);
+            } else {
+                CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS).execute(() -> expire(waiter));
+            }
+        }
+        // A caller cancelling the future must not leak a permit that is granted afterwards
+        waiter.permit.whenComplete((v, ex) -> {
+            if (ex != null) {
+                abandon(waiter);
+            }
+        });
+        return waiter.permit;
+    }
+
+    /**
+     * Takes a permit right away if one is free (returns null), otherwise queues and returns a waiter.
+     */
+    private Waiter enqueue() {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return null;
+            }
+            Waiter waiter = new Waiter();
+            waiters.addLast(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.granted || !waiters.remove(waiter)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        waiter.permit.completeExceptionally(new TimeoutException("No API permit available within the deadline"));
+    }
+
+    // Waiter gave up (interrupt, cancel, timeout): drop it from the queue, or hand back the permit it was just granted
+    private void abandon(Waiter waiter) {
+        List<Waiter> granted;
+        lock.lock();
+        try {
+            if (!waiter.granted) {
+                waiters.remove(waiter);
+                return;
+            }
+            waiter.granted = false;
+            inFlight--;
+            granted = grantPermits();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    /**
+     * Returns the permit and feeds the call's outcome into the limit.
+     */
+    public void release(long rttNanos, boolean failed) {
+        List<Waiter> granted;
+        lock.lock();
+        try {
+            int inFlightAtSample = inFlight;
+            inFlight--;
+            onSample(rttNanos, failed, inFlightAtSample);
+            // The limit may have grown by more than one slot, so hand out everything that now fits
+            granted = grantPermits();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    private List<Waiter> grantPermits() {
+        List<Waiter> granted = List.of();
+        while (!waiters.isEmpty() && inFlight < (int) limit) {
+            Waiter waiter = waiters.pollFirst();
+            waiter.granted = true;
+            inFlight++;
+            if (granted.isEmpty()) {
+                granted = new ArrayList<>(2);
+            }
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    // Completed outside the lock so that continuations never run while holding it
+    private void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (!waiter.permit.complete(null)) {
+                abandon(waiter);
+            }
+        }
+    }
+
+    private void onSample(long rttNanos, boolean failed, int inFlightAtSample) {
+        long now = System.nanoTime();
+        if (now - windowStartNanos > baselineWindowNanos) {
+            previousWindowMinRtt = currentWindowMinRtt;
+            currentWindowMinRtt = Long.MAX_VALUE;
+            windowStartNanos = now;
+        }
+        if (!failed) {
+            currentWindowMinRtt = Math.min(currentWindowMinRtt, rttNanos);
+            smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : (smoothedRttNanos * 7 + rttNanos) / 8;
+        }
+
+        long baseline = Math.min(currentWindowMinRtt, previousWindowMinRtt);
+        boolean congested = failed || (baseline != Long.MAX_VALUE && rttNanos > baseline * latencyTolerance);
+
+        if (congested) {
+            if (now - lastDecreaseNanos >= smoothedRttNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+            }
+        } else if (inFlightAtSample * 2 >= (int) limit) {
+            // Only grow when the current limit is being used, otherwise the signal says nothing about capacity
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getSmoothedRttMillis() {
+        lock.lock();
+        try {
+            return smoothedRttNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getBaselineRttMillis() {
+        lock.lock();
+        try {
+            long baseline = Math.min(currentWindowMinRtt, previousWindowMinRtt);
+            return baseline == Long.MAX_VALUE ? 0 : baseline / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "limit=" + getLimit() + ", inFlight=" + getInFlight() + ", waiting=" + getQueueLength()
+                + String.format(", rtt=%.1fms, baseline=%.1fms", getSmoothedRttMillis(), getBaselineRttMillis());
+    }
+
+    // Demo: 64 callers against a fake downstream whose latency jumps from 20ms to 200ms and back mid-run
+    public static void main(String[] args) throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 200, 0.9, 2.0, 2_000);
+        // Fake downstream: fixed latency up to 20 concurrent calls, then queueing delay grows with load
+        int downstreamCapacity = 20;
+        AtomicLong latencyMillis = new AtomicLong(20);
+        AtomicInteger downstreamActive = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        int callers = 64;
+        CountDownLatch done = new CountDownLatch(callers);
+
+        for (int c = 0; c < callers; c++) {
+            new Thread(() -> {
+                while (running.get()) {
+                    try {
+                        limiter.acquire();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        int active = downstreamActive.incrementAndGet();
+                        long overload = Math.max(0, active - downstreamCapacity);
+                        Thread.sleep(latencyMillis.get() + overload * latencyMillis.get() / 4);
+                    } catch (InterruptedException e) {
+                        break;
+                    } finally {
+                        downstreamActive.decrementAndGet();
+                        limiter.release(System.nanoTime() - start, false);
+                    }
+                }
+                done.countDown();
+            }, "Caller-" + c).start();
+        }
+
+        for (int tick = 0; tick < 30; tick++) {
+            if (tick == 10) {
+                latencyMillis.set(200);
+                System.out.println("--- downstream slows to 200ms ---");
+            } else if (tick == 20) {
+                latencyMillis.set(20);
+                System.out.println("--- downstream recovers to 20ms ---");
+            }
+            Thread.sleep(500);
+            System.out.println(limiter);
+        }
+        running.set(false);
+        done.await();
+    }
+}
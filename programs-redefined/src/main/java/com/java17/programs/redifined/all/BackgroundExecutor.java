@@ -0,0 +1,212 @@
+package com.java17.programs.redifined.all;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.Runnable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor behind ConcurrentUtil's background work, on platform or virtual threads.
+ *
+ *   PLATFORM → fixed pool of platformThreads threads; at most that many blocking calls are in flight
+ *   VIRTUAL  → one virtual thread per task (Java 21+); a task parks on a semaphore of maxConcurrent permits
+ *              until it may run, so the only cap on blocking I/O in flight is that limit, not a thread count
+ *
+ * Virtual threads are looked up reflectively, so the code still compiles and runs on Java 17; there VIRTUAL
+ * falls back to PLATFORM with a warning, and {@link #getMode()} reports what is actually used.
+ *
+ * Blocking inside synchronized pins a virtual thread to its carrier (up to Java 23): tasks should wait on
+ * j.u.c locks, as the user locks and the API limiter already do.
+ */
+public class BackgroundExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(BackgroundExecutor.class);
+
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private final Mode mode;
+    private final ExecutorService delegate;
+    // Concurrency limit in VIRTUAL mode; null in PLATFORM mode, where the pool size is the limit
+    private final Semaphore permits;
+    private final int maxConcurrent;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+
+    public BackgroundExecutor(Mode mode, int platformThreads, int maxConcurrent) {
+        ExecutorService virtual = mode == Mode.VIRTUAL ? newVirtualThreadExecutor("concurrent-util-vt-") : null;
+        if (mode == Mode.VIRTUAL && virtual == null) {
+            log.warn("Virtual threads need Java 21+ (running {}), using {} platform threads instead",
+                    Runtime.version(), platformThreads);
+        }
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL;
+            this.delegate = virtual;
+            this.permits = new Semaphore(maxConcurrent, true);
+            this.maxConcurrent = maxConcurrent;
+        } else {
+            AtomicInteger threadCounter = new AtomicInteger();
+            this.mode = Mode.PLATFORM;
+            this.delegate = new ThreadPoolExecutor(platformThreads, platformThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), r -> new Thread(r, "concurrent-util-" + threadCounter.incrementAndGet()));
+            this.permits = null;
+            this.maxConcurrent = platformThreads;
+        }
+        log.info("Background executor runs on {} threads, at most {} tasks at a time", this.mode, this.maxConcurrent);
+    }
+
+    // Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory()), or null before Java 21
+    private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not there (Java 17), or still a preview feature that is switched off (Java 19/20)
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void run(Runnable task) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // shutdownNow: the task never started
+                queued.decrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            completed.increment();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * The mode actually in use, which is PLATFORM if VIRTUAL was asked for on a JVM without virtual threads.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Tasks submitted but not yet running: in the pool queue, or parked on a permit in VIRTUAL mode.
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getCompletedTaskCount() {
+        return completed.sum();
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    public void shutdownNow() {
+        delegate.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: active=%d/%d, queued=%d, completed=%d", mode, getActiveCount(), maxConcurrent,
+                getQueuedCount(), getCompletedTaskCount());
+    }
+
+    // Benchmark: 1000 calls to a simulated downstream that takes 200ms, 10 platform threads vs virtual threads
+    public static void main(String[] args) throws InterruptedException {
+        int calls = Integer.getInteger("calls", 1_000);
+        run(new BackgroundExecutor(Mode.PLATFORM, 10, 10), calls);
+        run(new BackgroundExecutor(Mode.VIRTUAL, 10, 1_000), calls);
+    }
+
+    private static void run(BackgroundExecutor executor, int calls) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long[] latencies = new long[calls];
+        CountDownLatch done = new CountDownLatch(calls);
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            int index = i;
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                simulateDownstream();
+                latencies[index] = System.nanoTime() - submitted;
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        System.out.printf("%-8s limit %4d: %6.0f calls/s, p50 %6d ms, p99 %6d ms, peak JVM threads %d%n",
+                executor.getMode(), executor.getMaxConcurrent(), calls / (elapsed / 1e9),
+                TimeUnit.NANOSECONDS.toMillis(latencies[calls / 2]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[(int) (calls * 0.99)]),
+                threads.getPeakThreadCount());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static void simulateDownstream() {
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.java17.programs.redifined.all;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.Runnable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * One isolated bulkhead per downstream dependency ("stripe", "audit", "logging", ...).
+ *
+ * Each bulkhead owns
+ *   - a semaphore of maxConcurrent permits: the dependency's whole concurrency budget, and
+ *   - a thread pool of maxConcurrent threads with a bounded queue of queueCapacity tasks for async work,
+ * so a slow dependency can only exhaust its own threads, queue and permits, never somebody else's.
+ * Synchronous calls (on the caller's thread) and async tasks (on a pool thread, before running) both take a
+ * permit, so at most maxConcurrent calls are in flight against the dependency, however they are split.
+ *
+ * When a bulkhead is full the configured RejectionPolicy decides what happens:
+ *   ABORT          → RejectedExecutionException
+ *   CALLER_RUNS    → async task runs on the submitting thread (natural back-pressure); sync calls behave like ABORT
+ *   DISCARD        → task is dropped (its Future is cancelled); sync calls are skipped and return null
+ *   DISCARD_OLDEST → oldest queued task is dropped (and cancelled) to make room; sync calls behave like ABORT
+ *
+ * Bulkheads are created on first use from the configured settings for that name, or the defaults.
+ */
+public class BulkheadRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkheadRegistry.class);
+
+    public enum RejectionPolicy {
+        ABORT,
+        CALLER_RUNS,
+        DISCARD,
+        DISCARD_OLDEST
+    }
+
+    public static class Config {
+
+        private int maxConcurrent = 10;
+
+        private int queueCapacity = 100;
+
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+        // How long a synchronous call may wait for a permit before it is rejected; zero fails fast
+        private Duration maxWait = Duration.ZERO;
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public RejectionPolicy getRejectionPolicy() {
+            return rejectionPolicy;
+        }
+
+        public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = rejectionPolicy;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+    }
+
+    public static class Bulkhead {
+
+        private final String name;
+        private final Config config;
+        private final ThreadPoolExecutor executor;
+        private final Semaphore permits;
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder syncCalls = new LongAdder();
+
+        Bulkhead(String name, Config config) {
+            this.name = name;
+            this.config = config;
+            AtomicInteger threadCounter = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(config.getMaxConcurrent(), config.getMaxConcurrent(),
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getQueueCapacity()),
+                    r -> new Thread(r, "bulkhead-" + name + "-" + threadCounter.incrementAndGet()),
+                    rejectionHandler(config.getRejectionPolicy()));
+            this.executor.allowCoreThreadTimeOut(true);
+            this.permits = new Semaphore(config.getMaxConcurrent(), true);
+        }
+
+        private RejectedExecutionHandler rejectionHandler(RejectionPolicy policy) {
+            return (task, pool) -> {
+                rejected.increment();
+                log.warn("Bulkhead '{}' saturated, applying {}", name, policy);
+                switch (policy) {
+                    case ABORT -> throw new RejectedExecutionException("Bulkhead '" + name + "' is full");
+                    case CALLER_RUNS -> {
+                        if (!pool.isShutdown()) {
+                            task.run();
+                        } else {
+                            cancel(task);
+                        }
+                    }
+                    // Cancel dropped FutureTasks so callers waiting on them don't hang forever
+                    case DISCARD -> cancel(task);
+                    case DISCARD_OLDEST -> {
+                        if (!pool.isShutdown()) {
+                            cancel(pool.getQueue().poll());
+                            pool.execute(task);
+                        } else {
+                            cancel(task);
+                        }
+                    }
+                }
+            };
+        }
+
+        private static void cancel(Runnable task) {
+            if (task instanceof Future<?> future) {
+                future.cancel(false);
+            }
+        }
+
+        public <T> Future<T> submit(Supplier<T> task) {
+            return executor.submit(() -> withPermit(task));
+        }
+
+        public void execute(Runnable task) {
+            executor.execute(() -> {
+                try {
+                    withPermit(() -> {
+                        task.run();
+                        return null;
+                    });
+                } catch (InterruptedException e) {
+                    // shutdownNow while waiting for a permit: the task never started
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        // Pool threads wait for a permit held by sync calls rather than exceed the shared budget
+        private <T> T withPermit(Supplier<T> task) throws InterruptedException {
+            permits.acquire();
+            try {
+                return task.get();
+            } finally {
+                permits.release();
+            }
+        }
+
+        /**
+         * Runs the call on the caller's thread once a permit is free (waiting at most maxWait).
+         */
+        public <T> T call(Supplier<T> task) {
+            boolean acquired;
+            try {
+                long waitNanos = config.getMaxWait() == null ? 0 : config.getMaxWait().toNanos();
+                acquired = permits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for bulkhead '" + name + "'", e);
+            }
+            if (!acquired) {
+                rejected.increment();
+                log.warn("Bulkhead '{}' has no free permit after {}", name, config.getMaxWait());
+                if (config.getRejectionPolicy() == RejectionPolicy.DISCARD) {
+                    return null;
+                }
+                throw new RejectedExecutionException("Bulkhead '" + name + "' is full");
+            }
+            syncCalls.increment();
+            try {
+                return task.get();
+            } finally {
+                permits.release();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Metrics metrics() {
+            return new Metrics(name, config.getMaxConcurrent(), executor.getActiveCount(), executor.getQueue().size(),
+                    config.getQueueCapacity(), config.getMaxConcurrent() - permits.availablePermits(),
+                    permits.getQueueLength(), executor.getCompletedTaskCount(), syncCalls.sum(), rejected.sum());
+        }
+
+        void shutdown() {
+            executor.shutdown();
+        }
+
+        boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+
+        void shutdownNow() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Point-in-time saturation figures of one bulkhead.
+     */
+    public static class Metrics {
+        private final String name;
+        private final int maxConcurrent;
+        private final int activeThreads;
+        private final int queuedTasks;
+        private final int queueCapacity;
+        private final int permitsInUse;
+        private final int permitWaiters;
+        private final long completedTasks;
+        private final long completedCalls;
+        private final long rejected;
+
+        Metrics(String name, int maxConcurrent, int activeThreads, int queuedTasks, int queueCapacity,
+                int permitsInUse, int permitWaiters, long completedTasks, long completedCalls, long rejected) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.activeThreads = activeThreads;
+            this.queuedTasks = queuedTasks;
+            this.queueCapacity = queueCapacity;
+            this.permitsInUse = permitsInUse;
+            this.permitWaiters = permitWaiters;
+            this.completedTasks = completedTasks;
+            this.completedCalls = completedCalls;
+            this.rejected = rejected;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        public int getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public int getPermitsInUse() {
+            return permitsInUse;
+        }
+
+        public int getPermitWaiters() {
+            return permitWaiters;
+        }
+
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        public long getCompletedCalls() {
+            return completedCalls;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * 0.0 = idle, 1.0 = every thread busy and the queue full.
+         */
+        public double getSaturation() {
+            return (double) (activeThreads + queuedTasks) / (maxConcurrent + queueCapacity);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: active=%d/%d, queued=%d/%d, permits=%d/%d (waiting %d), completed=%d+%d, rejected=%d",
+                    name, activeThreads, maxConcurrent, queuedTasks, queueCapacity, permitsInUse, maxConcurrent,
+                    permitWaiters, completedTasks, completedCalls, rejected);
+        }
+    }
+
+    private final Map<String, Config> configs;
+    private final Config defaults;
+    private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Consumer<Bulkhead>> creationListeners = new CopyOnWriteArrayList<>();
+
+    public BulkheadRegistry(Map<String, Config> configs, Config defaults) {
+        this.configs = Map.copyOf(configs);
+        this.defaults = defaults;
+    }
+
+    public Bulkhead get(String name) {
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead != null) {
+            return bulkhead;
+        }
+        boolean[] created = new boolean[1];
+        bulkhead = bulkheads.computeIfAbsent(name, n -> {
+            Config config = configs.getOrDefault(n, defaults);
+            log.info("Creating bulkhead '{}' (maxConcurrent={}, queueCapacity={}, policy={})",
+                    n, config.getMaxConcurrent(), config.getQueueCapacity(), config.getRejectionPolicy());
+            created[0] = true;
+            return new Bulkhead(n, config);
+        });
+        if (created[0]) {
+            for (Consumer<Bulkhead> listener : creationListeners) {
+                listener.accept(bulkhead);
+            }
+        }
+        return bulkhead;
+    }
+
+    /**
+     * Calls the listener for every existing bulkhead and for each one created later (e.g. to register its meters).
+     * A bulkhead created concurrently with this call may be passed twice, never skipped.
+     */
+    public void forEachBulkhead(Consumer<Bulkhead> listener) {
+        creationListeners.add(listener);
+        bulkheads.values().forEach(listener);
+    }
+
+    public Collection<Bulkhead> all() {
+        return bulkheads.values();
+    }
+
+    public void shutdown(long timeout, TimeUnit unit) {
+        bulkheads.values().forEach(Bulkhead::shutdown);
+        try {
+            for (Bulkhead bulkhead : bulkheads.values()) {
+                if (!bulkhead.awaitTermination(timeout, unit)) {
+                    log.warn("Bulkhead '{}' did not terminate in time. Forcing shutdown.", bulkhead.getName());
+                    bulkhead.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            bulkheads.values().forEach(Bulkhead::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Demo: a slow "stripe" dependency saturates its own bulkhead while "audit" keeps flowing
+    public static void main(String[] args) throws InterruptedException {
+        Config stripe = new Config();
+        stripe.setMaxConcurrent(2);
+        stripe.setQueueCapacity(4);
+        BulkheadRegistry registry = new BulkheadRegistry(Map.of("stripe", stripe), new Config());
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                registry.get("stripe").execute(() -> sleep(1_000));
+            } catch (RejectedExecutionException e) {
+                System.out.println("stripe rejected: " + e.getMessage());
+            }
+            registry.get("audit").execute(() -> sleep(10));
+        }
+        Thread.sleep(100);
+        // The async tasks hold all of stripe's permits, so a synchronous call can't add a third one in flight
+        try {
+            registry.get("stripe").call(() -> "charged");
+        } catch (RejectedExecutionException e) {
+            System.out.println("stripe sync call rejected: " + e.getMessage());
+        }
+        registry.all().forEach(b -> System.out.println(b.metrics()));
+        registry.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
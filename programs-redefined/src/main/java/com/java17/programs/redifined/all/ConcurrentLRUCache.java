@@ -0,0 +1,680 @@
+package com.java17.programs.redifined.all;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe LRU cache with O(1) get and put at any capacity.
+ *
+ * The map points straight at the nodes of an intrusive doubly-linked recency list (head = most recent),
+ * so moving or unlinking an entry never searches the list, unlike deque.remove(key) in
+ * {@link ThreadSafeLRUCacheWithConcurrentHashMapLinkedBlockingDeque} and
+ * {@link HighConcurrencyLRUCacheWithConcurrentHashMapDeque}.
+ *
+ * Reads never block: a hit is a ConcurrentHashMap lookup plus recording the node in one of several striped ring
+ * buffers. Whoever fills a buffer tries the eviction lock and, if it is free, replays all buffers onto the list
+ * in one batch; if the lock is busy the reader just moves on. When a buffer is full the access is dropped, so
+ * under heavy load the recency order is approximate, which costs little hit rate because hot entries are
+ * recorded over and over.
+ *
+ * Writes (put, remove) take the eviction lock, link or unlink their node and evict from the tail while over
+ * capacity; they drain the read buffers first, so pending reads are applied before anything is evicted.
+ *
+ * Capacity is a maximum total weight. By default every entry weighs 1, so it is a number of entries; with a
+ * {@link Weigher} (e.g. bytes per value) least recently used entries are evicted until the total weight fits the
+ * budget again, and an entry heavier than the whole budget is not cached at all.
+ *
+ * Entries can expire a fixed time after they were written (a default, or per entry with
+ * {@link #put(Object, Object, Duration)}) and/or after they were last read. A read checks the entry's deadline
+ * itself, so an expired value is never returned. Reclaiming expired entries is done by a {@link TimerWheel}
+ * advanced whenever the lock is taken anyway (writes, read buffer drains, {@link #cleanUp()}), with no scan of
+ * the map and no timer thread. Until then they still count towards {@link #size()}.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+    static class Node<K, V> {
+        final K key;
+        volatile V value;
+        // Guarded by evictionLock; a node is in the list iff it is the head or has a prev
+        Node<K, V> prev;
+        Node<K, V> next;
+        int weight;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Node of an entry that can expire; entries that can't don't pay for these fields.
+     */
+    static final class ExpiringNode<K, V> extends Node<K, V> {
+        // Written after value, so a reader that sees new times also sees the new value; writeTtlNanos 0 = none
+        volatile long writeTtlNanos;
+        volatile long accessedAt;
+        volatile long writtenAt;
+        // Guarded by evictionLock: position in the timer wheel, null when not scheduled
+        ExpiringNode<K, V> timerPrev;
+        ExpiringNode<K, V> timerNext;
+        long timerDeadline;
+
+        ExpiringNode(K key, V value) {
+            super(key, value);
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring of recorded reads; offers that don't fit are dropped.
+     */
+    static final class ReadBuffer<T> {
+        static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writeCount = new AtomicLong();
+        // Only advanced by the drainer, which holds the eviction lock
+        private final AtomicLong readCount = new AtomicLong();
+
+        /**
+         * @return true if the buffer is now full and should be drained
+         */
+        boolean offer(T item) {
+            long head = readCount.get();
+            long tail = writeCount.get();
+            if (tail - head >= SIZE) {
+                return true;
+            }
+            if (writeCount.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & MASK), item);
+                return tail + 1 - head >= SIZE;
+            }
+            // Lost a race with another reader on this stripe: drop rather than retry
+            return false;
+        }
+
+        void drainTo(Consumer<T> consumer) {
+            long head = readCount.get();
+            long tail = writeCount.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                T item = slots.get(index);
+                if (item == null) {
+                    // Slot claimed but not yet written; pick it up on the next drain
+                    break;
+                }
+                slots.lazySet(index, null);
+                consumer.accept(item);
+            }
+            readCount.lazySet(head);
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final ReadBuffer<Node<K, V>>[] readBuffers;
+    private final int readBufferMask;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Weigher<? super K, ? super V> weigher;
+    // Written under evictionLock; volatile so the getters needn't take it
+    private volatile long maximumWeight;
+    private volatile long weightedSize;
+
+    // Guarded by evictionLock; head is the most recently used entry
+    private Node<K, V> head;
+    private Node<K, V> tail;
+
+    // 0 = entries don't expire by default after write / access
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier ticker;
+    // Guarded by evictionLock
+    private final TimerWheel<K, V> timerWheel;
+    private long clockNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public ConcurrentLRUCache(int capacity) {
+        this(capacity, null, null);
+    }
+
+    /**
+     * Cache bounded by the total weight of its entries instead of their number.
+     */
+    public ConcurrentLRUCache(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+        this(maximumWeight, weigher, null, null);
+    }
+
+    /**
+     * @param expireAfterWrite  default time-to-live of an entry from when it was put, or null
+     * @param expireAfterAccess an entry expires when it has not been read or written for this long, or null
+     */
+    public ConcurrentLRUCache(int capacity, Duration expireAfterWrite, Duration expireAfterAccess) {
+        this(capacity, Weigher.singleton(), expireAfterWrite, expireAfterAccess);
+    }
+
+    public ConcurrentLRUCache(long maximumWeight, Weigher<? super K, ? super V> weigher,
+                              Duration expireAfterWrite, Duration expireAfterAccess) {
+        this(maximumWeight, weigher, expireAfterWrite, expireAfterAccess, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    ConcurrentLRUCache(long maximumWeight, Weigher<? super K, ? super V> weigher,
+                       Duration expireAfterWrite, Duration expireAfterAccess, LongSupplier ticker) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+        }
+        this.weigher = weigher;
+        this.expireAfterWriteNanos = toTtlNanos(expireAfterWrite);
+        this.expireAfterAccessNanos = toTtlNanos(expireAfterAccess);
+        this.ticker = ticker;
+        this.clockNanos = ticker.getAsLong();
+        this.timerWheel = new TimerWheel<>(clockNanos);
+        this.maximumWeight = maximumWeight;
+        this.data = new ConcurrentHashMap<>((int) Math.min(maximumWeight, 1 << 16));
+        // A few stripes per CPU so that readers rarely share one
+        int stripes = Math.min(64, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.readBuffers = (ReadBuffer<Node<K, V>>[]) new ReadBuffer<?>[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+        this.readBufferMask = stripes - 1;
+    }
+
+    private static long toTtlNanos(Duration ttl) {
+        if (ttl == null) {
+            return 0;
+        }
+        if (ttl.isZero() || ttl.isNegative()) {
+            throw new IllegalArgumentException("Expiration must be positive: " + ttl);
+        }
+        return ttl.toNanos();
+    }
+
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (node instanceof ExpiringNode<K, V> expiring) {
+            long now = ticker.getAsLong();
+            if (isExpired(expiring, now)) {
+                // Never serve it; reclaim it now if that doesn't mean waiting, otherwise the timer wheel will
+                misses.increment();
+                if (evictionLock.tryLock()) {
+                    try {
+                        expireIfDue(expiring, now);
+                    } finally {
+                        evictionLock.unlock();
+                    }
+                }
+                return null;
+            }
+            if (expireAfterAccessNanos > 0) {
+                expiring.accessedAt = now;
+            }
+        }
+        hits.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    private void afterRead(Node<K, V> node) {
+        long id = Thread.currentThread().getId();
+        ReadBuffer<Node<K, V>> buffer = readBuffers[(int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & readBufferMask];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Inserts or replaces the value and makes the entry the most recently used one. A value whose weight exceeds
+     * the maximum weight is not cached, and any previous value for the key is removed.
+     *
+     * @return the previous value, or null (also if it had expired)
+     */
+    public V put(K key, V value) {
+        return put(key, value, expireAfterWriteNanos);
+    }
+
+    /**
+     * Like {@link #put(Object, Object)}, with this entry expiring {@code ttl} after now instead of after the
+     * cache's default; expire-after-access, if configured, still applies as well.
+     */
+    public V put(K key, V value, Duration ttl) {
+        return put(key, value, toTtlNanos(ttl));
+    }
+
+    private V put(K key, V value, long writeTtlNanos) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        boolean expires = writeTtlNanos > 0 || expireAfterAccessNanos > 0;
+        evictionLock.lock();
+        try {
+            maintenance();
+            // Every change to data happens under evictionLock, so get-then-put is atomic here
+            Node<K, V> existing = data.get(key);
+            // Also read the clock when only the existing entry expires (put with a ttl), to tell if it already has
+            long now = expires || existing instanceof ExpiringNode ? ticker.getAsLong() : 0;
+            V previous = existing == null ? null : liveValue(existing, now);
+            if (weight > maximumWeight) {
+                // Could never fit; drop the old value too rather than keep serving what the caller replaced
+                rejections.increment();
+                if (existing != null) {
+                    discard(existing);
+                }
+                return previous;
+            }
+            if (existing instanceof ExpiringNode<K, V> expiring) {
+                expiring.value = value;
+                setTimes(expiring, writeTtlNanos, now);
+                scheduleExpiry(expiring);
+                reweigh(expiring, weight);
+                return previous;
+            }
+            if (existing != null && !expires) {
+                existing.value = value;
+                reweigh(existing, weight);
+                return previous;
+            }
+            Node<K, V> node;
+            if (expires) {
+                ExpiringNode<K, V> expiring = new ExpiringNode<>(key, value);
+                setTimes(expiring, writeTtlNanos, now);
+                node = expiring;
+            } else {
+                node = new Node<>(key, value);
+            }
+            if (existing != null) {
+                // An entry without expiration that now gets a TTL: swap in an expiring node
+                discard(existing);
+            }
+            data.put(key, node);
+            node.weight = weight;
+            weightedSize += weight;
+            linkFirst(node);
+            if (node instanceof ExpiringNode<K, V> expiring) {
+                scheduleExpiry(expiring);
+            }
+            evict();
+            return previous;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // value is written before, so readers that see the new times see the new value; writtenAt goes last
+    private static void setTimes(ExpiringNode<?, ?> node, long writeTtlNanos, long now) {
+        node.writeTtlNanos = writeTtlNanos;
+        node.accessedAt = now;
+        node.writtenAt = now;
+    }
+
+    public V remove(K key) {
+        evictionLock.lock();
+        try {
+            maintenance();
+            Node<K, V> node = data.get(key);
+            if (node == null) {
+                return null;
+            }
+            discard(node);
+            return node instanceof ExpiringNode<K, V> ? liveValue(node, ticker.getAsLong()) : node.value;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private V liveValue(Node<K, V> node, long now) {
+        return node instanceof ExpiringNode<K, V> expiring && isExpired(expiring, now) ? null : node.value;
+    }
+
+    // Caller holds evictionLock: the entry's new weight, evicting others if it grew past the budget
+    private void reweigh(Node<K, V> node, int weight) {
+        weightedSize += weight - node.weight;
+        node.weight = weight;
+        moveToHead(node);
+        evict();
+    }
+
+    // Caller holds evictionLock
+    private void evict() {
+        while (weightedSize > maximumWeight && tail != null) {
+            discard(tail);
+            evictions.increment();
+        }
+    }
+
+    // Caller holds evictionLock: takes the node out of the map, the recency list, the timer wheel and the weight
+    private void discard(Node<K, V> node) {
+        unlink(node);
+        if (node instanceof ExpiringNode<K, V> expiring) {
+            timerWheel.deschedule(expiring);
+        }
+        data.remove(node.key, node);
+        weightedSize -= node.weight;
+    }
+
+    // Caller holds evictionLock: applies buffered reads and reclaims expired entries
+    private void maintenance() {
+        drainReadBuffers();
+        if (!timerWheel.isEmpty()) {
+            clockNanos = ticker.getAsLong();
+            timerWheel.advance(clockNanos, this::onTimer);
+        }
+    }
+
+    // The wheel's deadline may be stale for expire-after-access entries read since: re-check before dropping
+    private void onTimer(ExpiringNode<K, V> node) {
+        if (!expireIfDue(node, clockNanos)) {
+            scheduleExpiry(node);
+        }
+    }
+
+    // Caller holds evictionLock
+    private boolean expireIfDue(ExpiringNode<K, V> node, long now) {
+        if (!isLinked(node) || !isExpired(node, now)) {
+            return false;
+        }
+        discard(node);
+        expirations.increment();
+        return true;
+    }
+
+    // Caller holds evictionLock
+    private void scheduleExpiry(ExpiringNode<K, V> node) {
+        long writeTtl = node.writeTtlNanos;
+        if (writeTtl == 0 && expireAfterAccessNanos == 0) {
+            timerWheel.deschedule(node);
+            return;
+        }
+        long deadline = writeTtl > 0 ? node.writtenAt + writeTtl : node.accessedAt + expireAfterAccessNanos;
+        if (writeTtl > 0 && expireAfterAccessNanos > 0) {
+            long accessDeadline = node.accessedAt + expireAfterAccessNanos;
+            if (accessDeadline - deadline < 0) {
+                deadline = accessDeadline;
+            }
+        }
+        node.timerDeadline = deadline;
+        timerWheel.schedule(node);
+    }
+
+    private boolean isExpired(ExpiringNode<K, V> node, long now) {
+        // writtenAt first: it is written last, so seeing its new value means seeing the other new fields too
+        long writtenAt = node.writtenAt;
+        long writeTtl = node.writeTtlNanos;
+        if (writeTtl > 0 && now - writtenAt >= writeTtl) {
+            return true;
+        }
+        return expireAfterAccessNanos > 0 && now - node.accessedAt >= expireAfterAccessNanos;
+    }
+
+    /**
+     * Reclaims expired entries and applies pending reads now, instead of on the next write or read buffer drain.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Caller holds evictionLock
+    private void drainReadBuffers() {
+        for (ReadBuffer<Node<K, V>> buffer : readBuffers) {
+            buffer.drainTo(this::moveToHead);
+        }
+    }
+
+    private void moveToHead(Node<K, V> node) {
+        // A buffered read of an entry that has since been evicted or removed
+        if (node == head || !isLinked(node)) {
+            return;
+        }
+        unlink(node);
+        linkFirst(node);
+    }
+
+    private void linkFirst(Node<K, V> node) {
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        head = node;
+    }
+
+    private boolean isLinked(Node<K, V> node) {
+        return node.prev != null || node == head;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Total weight of the cached entries; the number of entries unless the cache has a weigher.
+     */
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Changes the maximum weight, evicting least recently used entries right away when shrinking.
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+        }
+        evictionLock.lock();
+        try {
+            this.maximumWeight = maximumWeight;
+            maintenance();
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * The maximum number of entries (the maximum weight, for caches with a weigher).
+     */
+    public int getCapacity() {
+        return (int) Math.min(maximumWeight, Integer.MAX_VALUE);
+    }
+
+    public void setCapacity(int capacity) {
+        setMaximumWeight(capacity);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Puts that were not cached because the value alone outweighs the whole budget.
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Keys from most to least recently used, after applying pending reads; walks the whole list, so for debugging.
+     */
+    public List<K> keysByRecency() {
+        evictionLock.lock();
+        try {
+            maintenance();
+            List<K> keys = new ArrayList<>(data.size());
+            for (Node<K, V> node = head; node != null; node = node.next) {
+                keys.add(node.key);
+            }
+            return keys;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return keysByRecency().toString();
+    }
+
+    // Benchmark: 1M entries, 90% get / 10% put of random keys, against the two deque-based LRU caches
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentLRUCache<Integer, String> demo = new ConcurrentLRUCache<>(3);
+        demo.put(1, "A");
+        demo.put(2, "B");
+        demo.put(3, "C");
+        demo.get(1);
+        demo.put(4, "D");
+        System.out.println("After eviction: " + demo); // [4, 1, 3]
+
+        // Expiration, on a fake clock: prices live 10 minutes, a flash-sale price 1 minute
+        AtomicLong clock = new AtomicLong();
+        ConcurrentLRUCache<String, Integer> prices = new ConcurrentLRUCache<>(200_000, Weigher.singleton(),
+                Duration.ofMinutes(10), null, clock::get);
+        prices.put("sku-1", 100);
+        prices.put("sku-2", 80, Duration.ofMinutes(1));
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        System.out.println("After 2 min: sku-1=" + prices.get("sku-1") + ", sku-2=" + prices.get("sku-2")); // 100, null
+        for (int i = 0; i < 100_000; i++) {
+            prices.put("bulk-" + i, i, Duration.ofSeconds(1 + i % 3_600));
+        }
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(30));
+        long start = System.nanoTime();
+        prices.cleanUp();
+        System.out.printf("After 32 min: size=%d, expired=%d, reclaimed in %d ms by the timer wheel%n", prices.size(),
+                prices.getExpirations(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(31));
+        prices.cleanUp();
+        System.out.printf("After 63 min: size=%d, expired=%d%n", prices.size(), prices.getExpirations());
+
+        // Weighted by bytes: payloads of 100 B to 2 MB under a 64 MB budget, where a count bound can't hold memory
+        long budget = 64L << 20;
+        ConcurrentLRUCache<Integer, byte[]> blobs = new ConcurrentLRUCache<>(budget, (key, value) -> value.length + 64);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long maxWeightedSize = 0;
+        for (int i = 0; i < 20_000; i++) {
+            int length = random.nextInt(100) < 90 ? 100 + random.nextInt(16 << 10) : random.nextInt(2 << 20);
+            blobs.put(random.nextInt(5_000), new byte[length]);
+            maxWeightedSize = Math.max(maxWeightedSize, blobs.weightedSize());
+        }
+        System.out.printf("Weighted: %,d entries, %,d of %,d bytes (peak %,d), %,d evictions%n", blobs.size(),
+                blobs.weightedSize(), budget, maxWeightedSize, blobs.getEvictions());
+        blobs.put(1, new byte[(int) budget]);
+        System.out.printf("Oversize put: rejected=%d, key 1 cached=%b, %,d bytes%n", blobs.getRejections(),
+                blobs.get(1) != null, blobs.weightedSize());
+
+        int capacity = Integer.getInteger("capacity", 1_000_000);
+        int threads = Integer.getInteger("threads", 4);
+        long millis = Long.getLong("millis", 3_000);
+
+        ConcurrentLRUCache<Integer, Integer> lru = new ConcurrentLRUCache<>(capacity);
+        benchmark("ConcurrentLRUCache", capacity, threads, millis, lru::get, k -> lru.put(k, k));
+
+        ThreadSafeLRUCacheWithConcurrentHashMapLinkedBlockingDeque<Integer, Integer> blocking =
+                new ThreadSafeLRUCacheWithConcurrentHashMapLinkedBlockingDeque<>(capacity);
+        benchmark("CHM + LinkedBlockingDeque", capacity, threads, millis, blocking::get, k -> blocking.put(k, k));
+
+        HighConcurrencyLRUCacheWithConcurrentHashMapDeque<Integer, Integer> deque =
+                new HighConcurrencyLRUCacheWithConcurrentHashMapDeque<>(capacity);
+        benchmark("CHM + ConcurrentLinkedDeque", capacity, threads, millis, deque::get, k -> deque.put(k, k));
+    }
+
+    private static void benchmark(String name, int capacity, int threads, long millis,
+                                  IntFunction<Integer> get, Consumer<Integer> put) throws InterruptedException {
+        for (int k = 0; k < capacity; k++) {
+            put.accept(k);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (running.get()) {
+                    int key = random.nextInt(capacity);
+                    if (random.nextInt(10) == 0) {
+                        put.accept(key);
+                    } else {
+                        get.apply(key);
+                    }
+                    count++;
+                }
+                ops.add(count);
+                done.countDown();
+            }, name + "-" + t).start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        done.await();
+        System.out.printf("%-28s capacity %,d, %d threads: %,12.0f ops/s%n", name, capacity, threads,
+                ops.sum() / (millis / 1e3));
+    }
+}
@@ -1,43 +1,109 @@
 package com.java17.programs.redifined.all;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 
+/**
+ * Concurrency toolkit for the payment flows. Also a Micrometer MeterBinder, so with actuator on the classpath every
+ * primitive below shows up under "concurrent.util.*" meters; {@link #metricsSnapshot()} backs the
+ * /actuator/concurrentutil endpoint. Meters are read on scrape, only the latency histograms cost anything per call.
+ */
 @Component
-public class ConcurrentUtil {
+public class ConcurrentUtil implements MeterBinder {
 
 
     Logger log = LoggerFactory.getLogger(ConcurrentUtil.class);
 
-    // Used for rate-limiting or user-level request tracking
-    private final ConcurrentHashMap<String, AtomicInteger> requestTracker = new ConcurrentHashMap<>();
+    // User-level request tracking over a sliding window in fixed memory, with the heaviest users for abuse detection
+    private final HeavyHitters requestTracker;
 
-    // Payment buffer queue for burst traffic control
-    private final LinkedBlockingQueue<PayInRequest> paymentQueue = new LinkedBlockingQueue<>(1000);
+    // Per-user token buckets enforcing the request rate, idle users expire on their own
+    private final UserRateLimiter rateLimiter;
 
-    // Executes background tasks (e.g., Stripe API calls)
-    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+    // Payment buffer queue for burst traffic control (LinkedBlockingQueue, a lock-free MPSC ring buffer, or priority lanes)
+    private final BlockingQueue<PayInRequest> paymentQueue;
 
-    // Fine-grained locking on wallet/account per user
-    private final Map<String, ReentrantLock> lockMap = new ConcurrentHashMap<>();
+    // Durable on-disk overflow for paymentQueue (null unless payment-buffer.overflow=JOURNAL), replayed into it in order
+    private final PayInJournal payinJournal;
 
-    // For shared configuration reads with infrequent updates
-    private final ReadWriteLock configLock = new ReentrantReadWriteLock();
+    // Result of each txnId seen recently, so client retries get the original outcome instead of a second charge
+    private final IdempotencyStore<Object> payinResults;
 
-    // Limit concurrent DB/API access (e.g., max 10 concurrent Stripe calls)
-    private final Semaphore apiAccessSemaphore = new Semaphore(10);
+    // Drains paymentQueue in batches (size or linger bound) so downstream writes can be grouped
+    private final PayInBatchConsumer payinBatchConsumer;
+
+    // Alternative consumer of paymentQueue: per-user ordered processing on N single-consumer partitions
+    private final PartitionedPayInProcessor payinPartitions;
+
+    // Executes background tasks (e.g., Stripe API calls), on a platform pool or on virtual threads
+    private final BackgroundExecutor executor;
+
+    // Per-call latency histograms (user lock wait/hold, API calls, payment buffering) are skipped when false.
+    // They record a 1-in-sampleRate sample: a clock read and a counter update per call cost more than the calls they time
+    private final boolean metricsEnabled;
+
+    private final LatencyHistogram apiCallLatency;
+
+    // Time enqueuePayin spent getting a request into the buffer: non-zero means producers are being held up
+    private final LatencyHistogram payinBufferTime;
+
+    private final LongAdder payinsEnqueued = new LongAdder();
+
+    // Fine-grained locking on wallet/account per user, bounded by live users (or a fixed stripe array)
+    private final UserLockRegistry userLocks;
+
+    // Wait/hold histograms for the user locks and a bounded summary of the most contended users
+    private final LockContentionStats lockStats;
+
+    // Per-tenant queues on the executor, served deficit-round-robin by weight
+    private final FairTaskScheduler fairScheduler;
+
+    // Tenant of runAsync/runAsyncWithResult calls that don't name one
+    private static final String DEFAULT_TENANT = "default";
+
+    // Shares one in-flight call (and optionally its result for a short ttl) between concurrent callers of a key
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // Per-user serial task queues on the executor; a key's mailbox exists only while it has work
+    private final KeyedSerialExecutor userMailboxes;
+
+    // Per-dependency isolation (Stripe, audit, logging, ...): own threads, queue, permits and rejection policy
+    private final BulkheadRegistry bulkheads;
+
+    // For shared configuration reads with infrequent updates: optimistic reads, exclusive writes
+    private final StampedLock configLock = new StampedLock();
+
+    // Thread currently inside withWriteLock, so nested config reads/writes from it don't self-deadlock
+    private volatile Thread configWriter;
+
+    // Limit concurrent DB/API access (e.g., Stripe calls); the limit adapts to observed latency and errors
+    private final AdaptiveConcurrencyLimiter apiAccessLimiter;
 
     // For coordination between init tasks (e.g., Redis + Kafka init)
     private final CountDownLatch initLatch = new CountDownLatch(2); // Adjust for your init services
@@ -45,20 +111,201 @@ public class ConcurrentUtil {
     // Used for multi-thread coordination (e.g., log + audit)
     private final CyclicBarrier barrier = new CyclicBarrier(2);
 
+    public ConcurrentUtil() {
+        this(new ConcurrentUtilProperties());
+    }
+
+    @Autowired
+    public ConcurrentUtil(ConcurrentUtilProperties properties) {
+        ConcurrentUtilProperties.Metrics metrics = properties.getMetrics();
+        this.metricsEnabled = metrics.isEnabled();
+        this.apiCallLatency = new LatencyHistogram(metrics.getSampleRate());
+        this.payinBufferTime = new LatencyHistogram(metrics.getSampleRate());
+        ConcurrentUtilProperties.UserLock userLock = properties.getUserLock();
+        this.userLocks = new UserLockRegistry(userLock.getMode(), userLock.getStripes());
+        this.lockStats = new LockContentionStats(userLock.getTrackedHotKeys(), metrics.getSampleRate());
+        ConcurrentUtilProperties.RequestTracking requestTracking = properties.getRequestTracking();
+        this.requestTracker = new HeavyHitters(requestTracking.getWindowDuration(), requestTracking.getWindows(),
+                requestTracking.getTrackedUsers());
+        ConcurrentUtilProperties.RateLimit rateLimit = properties.getRateLimit();
+        this.rateLimiter = new UserRateLimiter(rateLimit.getPermitsPerSecond(), rateLimit.getBurst(), rateLimit.getIdleTimeout());
+        this.paymentQueue = createPaymentQueue(properties.getPaymentBuffer());
+        this.payinJournal = createPayinJournal(properties.getPaymentBuffer());
+        ConcurrentUtilProperties.Idempotency idempotency = properties.getIdempotency();
+        this.payinResults = new IdempotencyStore<>(idempotency.getTtl(), idempotency.getMaxEntries());
+        ConcurrentUtilProperties.PayinBatch payinBatch = properties.getPayinBatch();
+        this.payinBatchConsumer = new PayInBatchConsumer(paymentQueue, payinBatch.getMaxSize(), payinBatch.getLingerMillis());
+        ConcurrentUtilProperties.PayinPartition payinPartition = properties.getPayinPartition();
+        this.payinPartitions = new PartitionedPayInProcessor(paymentQueue, payinPartition.getPartitions(),
+                payinPartition.getShardCapacity());
+        ConcurrentUtilProperties.Background background = properties.getBackground();
+        this.executor = new BackgroundExecutor(background.getMode(), background.getPlatformThreads(),
+                background.getMaxConcurrent());
+        this.userMailboxes = new KeyedSerialExecutor(executor);
+        ConcurrentUtilProperties.FairQueue fairQueue = properties.getFairQueue();
+        this.fairScheduler = new FairTaskScheduler(executor, fairQueue.getWeights(), fairQueue.getDefaultWeight());
+        this.bulkheads = new BulkheadRegistry(properties.getBulkheads(), properties.getBulkheadDefaults());
+        ConcurrentUtilProperties.ApiLimit apiLimit = properties.getApiLimit();
+        this.apiAccessLimiter = new AdaptiveConcurrencyLimiter(apiLimit.getInitialLimit(), apiLimit.getMinLimit(),
+                apiLimit.getMaxLimit(), apiLimit.getBackoffRatio(), apiLimit.getLatencyTolerance(), apiLimit.getBaselineWindowMillis());
+    }
+
+    private PayInJournal createPayinJournal(ConcurrentUtilProperties.PaymentBuffer buffer) {
+        if (buffer.getOverflow() != ConcurrentUtilProperties.PaymentBuffer.Overflow.JOURNAL) {
+            return null;
+        }
+        PayInJournal journal = new PayInJournal(Path.of(buffer.getJournalDir()), buffer.getJournalSegmentBytes());
+        // Recovered requests go first; new ones queue behind them while the journal is non-empty. Replay is
+        // at-least-once and bypasses payinResults, so the consumer has to tolerate a txnId it already processed
+        journal.startReplay(paymentQueue);
+        return journal;
+    }
+
+    private BlockingQueue<PayInRequest> createPaymentQueue(ConcurrentUtilProperties.PaymentBuffer buffer) {
+        return switch (buffer.getMode()) {
+            case LINKED -> new LinkedBlockingQueue<>(buffer.getCapacity());
+            // Ring buffer is single-consumer: use either dequeuePayin or the batch consumer, not both concurrently
+            case RING -> new MpscRingBuffer<>(buffer.getCapacity(), buffer.getWaitStrategy());
+            case PRIORITY -> {
+                if (buffer.getLaneWeights().size() != PayInRequest.Priority.values().length) {
+                    throw new IllegalArgumentException("payment-buffer.lane-weights needs one weight per priority "
+                            + List.of(PayInRequest.Priority.values()) + ", got " + buffer.getLaneWeights());
+                }
+                yield new PriorityLaneQueue<>(buffer.getCapacity(), buffer.getLaneWeights(),
+                        request -> request.getPriority().ordinal());
+            }
+        };
+    }
+
     // ==== API ====
 
     public void trackRequest(String userId) {
-        requestTracker.computeIfAbsent(userId, k -> new AtomicInteger(0)).incrementAndGet();
-        log.debug("Tracked request for user: {}, count: {}", userId, getRequestCount(userId));
+        requestTracker.record(userId);
+        if (log.isDebugEnabled()) {
+            log.debug("Tracked request for user: {}, count: {}", userId, getRequestCount(userId));
+        }
     }
 
+    /**
+     * Estimated requests of the user within the request-tracking window (never less than the true count).
+     */
     public int getRequestCount(String userId) {
-        return requestTracker.getOrDefault(userId, new AtomicInteger(0)).get();
+        return (int) Math.min(Integer.MAX_VALUE, requestTracker.estimate(userId));
+    }
+
+    /**
+     * The k users with the most requests within the request-tracking window, busiest first.
+     */
+    public List<HeavyHitters.HeavyHitter> topUsers(int k) {
+        return requestTracker.topUsers(k);
+    }
+
+    /**
+     * Non-blocking rate check: true if the user still has {@code permits} left in their bucket.
+     */
+    public boolean tryAcquire(String userId, int permits) {
+        boolean acquired = rateLimiter.tryAcquire(userId, permits);
+        if (!acquired) {
+            log.debug("Rate limit exceeded for user: {}, permits: {}", userId, permits);
+        }
+        return acquired;
+    }
+
+    /**
+     * Queues the payment unless its txnId was seen within the idempotency ttl, in which case the original
+     * request's result is returned and nothing is queued. The returned future completes when the consumer
+     * calls completePayin/failPayin for the txnId. Requests without a txnId can't be deduplicated: they are
+     * always queued and get an already completed future.
+     *
+     * @throws RejectedExecutionException if idempotency.max-entries payments are still in flight; nothing is queued
+     */
+    public CompletableFuture<Object> enqueuePayin(PayInRequest request) throws InterruptedException {
+        String txnId = request.getTxnId();
+        if (txnId == null) {
+            bufferPayin(request);
+            log.debug("Enqueued payment request without txnId");
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Object> original = payinResults.register(txnId, result);
+        if (original != null) {
+            log.debug("Duplicate payment request: {}, returning original result", txnId);
+            return original;
+        }
+        try {
+            bufferPayin(request);
+        } catch (Throwable e) {
+            // Never queued (interrupted, journal closed or failing): a retry must be able to go through, and
+            // whoever already joined this txnId must not wait on a future nothing will complete
+            payinResults.remove(txnId, result);
+            result.completeExceptionally(e);
+            throw e;
+        }
+        log.debug("Enqueued payment request: {}", txnId);
+        return result;
+    }
+
+    /**
+     * Puts the request into the memory buffer, or with a journal, spills it to disk instead of blocking when the
+     * buffer is full. Once anything is journaled, later requests are journaled too until the replay catches up,
+     * so requests reach the buffer in arrival order.
+     */
+    private void bufferPayin(PayInRequest request) throws InterruptedException {
+        boolean timed = metricsEnabled && payinBufferTime.sample();
+        long start = timed ? System.nanoTime() : 0;
+        if (payinJournal == null) {
+            paymentQueue.put(request);
+        } else if (!payinJournal.isEmpty() || !paymentQueue.offer(request)) {
+            payinJournal.append(request);
+            log.debug("Payment buffer full, journaled payment request: {}", request.getTxnId());
+        }
+        payinsEnqueued.increment();
+        if (timed) {
+            payinBufferTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the outcome of a processed payment; duplicates of the txnId within the ttl receive it.
+     */
+    public void completePayin(String txnId, Object outcome) {
+        CompletableFuture<Object> result = payinResults.get(txnId);
+        if (result == null) {
+            log.debug("No pending idempotency entry for payment: {}", txnId);
+            return;
+        }
+        result.complete(outcome);
+    }
+
+    /**
+     * Fails a payment: current waiters see the error, and the txnId is forgotten so a retry is processed again.
+     */
+    public void failPayin(String txnId, Throwable error) {
+        CompletableFuture<Object> result = payinResults.get(txnId);
+        if (result == null) {
+            log.debug("No pending idempotency entry for payment: {}", txnId);
+            return;
+        }
+        payinResults.remove(txnId, result);
+        result.completeExceptionally(error);
+    }
+
+    /**
+     * Depth, throughput and time-in-queue per priority lane; empty unless the payment buffer runs in PRIORITY mode.
+     */
+    public List<PriorityLaneQueue.LaneMetrics> getPaymentLaneMetrics() {
+        if (paymentQueue instanceof PriorityLaneQueue<PayInRequest> lanes) {
+            return lanes.laneMetrics();
+        }
+        return List.of();
     }
 
-    public void enqueuePayin(PayInRequest request) throws InterruptedException {
-        paymentQueue.put(request);
-        log.debug("Enqueued payment request: {}", request.getTxnId());
+    public long getDuplicatePayinHits() {
+        return payinResults.getDuplicateHits();
+    }
+
+    public int getIdempotencyEntries() {
+        return payinResults.size();
     }
 
     public PayInRequest dequeuePayin() throws InterruptedException {
@@ -67,128 +314,466 @@ public class ConcurrentUtil {
         return request;
     }
 
+    /**
+     * Blocks for the first request, then returns up to the configured batch size or whatever arrived within the linger.
+     */
+    public List<PayInRequest> dequeuePayinBatch() throws InterruptedException {
+        List<PayInRequest> batch = payinBatchConsumer.nextBatch();
+        log.debug("Dequeued payment batch of {} requests", batch.size());
+        return batch;
+    }
+
+    /**
+     * Hands every payment batch to the handler on a dedicated consumer thread until shutdown.
+     */
+    public void startPayinBatchConsumer(Consumer<List<PayInRequest>> handler) {
+        payinBatchConsumer.start(handler);
+        log.info("Started payment batch consumer");
+    }
+
+    public PayInBatchConsumer getPayinBatchConsumer() {
+        return payinBatchConsumer;
+    }
+
+    /**
+     * Consumes the payment buffer on the configured number of partitions, one thread each: payments of the same
+     * user are handled in order, different users in parallel. Use instead of the batch consumer, not alongside it.
+     * Payments the partitions give up on (at shutdown, or when a partition is down) are failed, so a retry can go through.
+     */
+    public void startPartitionedPayinConsumer(Consumer<PayInRequest> handler) {
+        payinPartitions.start(handler, request -> {
+            if (request.getTxnId() != null) {
+                failPayin(request.getTxnId(), new IllegalStateException("Payment was dropped before it was processed"));
+            }
+        });
+    }
+
+    /**
+     * Changes the partition count; intake pauses until the current partitions have drained, so order is kept.
+     */
+    public void repartitionPayins(int partitions) throws InterruptedException {
+        payinPartitions.rebalance(partitions);
+    }
+
+    /**
+     * Payments routed to each partition and not yet handled, by partition index.
+     */
+    public long[] getPayinPartitionLag() {
+        return payinPartitions.getShardLag();
+    }
+
     public <T> Future<T> runAsyncWithResult(Supplier<T> task) {
-        return (Future<T>) executor.submit(() -> task.get());
+        return runAsyncWithResultForTenant(DEFAULT_TENANT, task);
     }
 
     public void runAsync(Runnable task) {
-        executor.submit((java.lang.Runnable) task);
+        runAsyncForTenant(DEFAULT_TENANT, task);
+    }
+
+    /**
+     * Queues the task under the tenant's own queue; tenants share the executor by weighted round robin,
+     * so one tenant's backlog doesn't delay everybody else's work.
+     */
+    public <T> Future<T> runAsyncWithResultForTenant(String tenantId, Supplier<T> task) {
+        return fairScheduler.submit(tenantId, task);
+    }
+
+    public void runAsyncForTenant(String tenantId, Runnable task) {
+        fairScheduler.submit(tenantId, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Like {@link #runAsyncWithResult(Supplier)}, but concurrent callers with the same key (e.g. "balance:" + userId,
+     * "fx:EURUSD") share a single execution of the supplier instead of running it once each.
+     */
+    public <T> CompletableFuture<T> coalesce(String key, Supplier<T> task) {
+        return coalesce(key, Duration.ZERO, task);
+    }
+
+    /**
+     * Coalesces as above and keeps serving the successful result to callers of the key for {@code ttl} afterwards.
+     */
+    public <T> CompletableFuture<T> coalesce(String key, Duration ttl, Supplier<T> task) {
+        return singleFlight.coalesce(key, ttl, () -> fairScheduler.submit(DEFAULT_TENANT, task));
+    }
+
+    /**
+     * Runs the task on the named dependency's bulkhead (its own threads and bounded queue) instead of the shared executor.
+     */
+    public <T> Future<T> runAsyncWithResult(String bulkhead, Supplier<T> task) {
+        return bulkheads.get(bulkhead).submit(task);
+    }
+
+    public void runAsync(String bulkhead, Runnable task) {
+        bulkheads.get(bulkhead).execute(task::run);
     }
 
     public void withUserLock(String userId, Runnable task) {
-        ReentrantLock lock = lockMap.computeIfAbsent(userId, k -> new ReentrantLock());
-        lock.lock();
-        try {
-            log.debug("Acquired lock for user: {}", userId);
+        Lock lock = userLocks.acquire(userId);
+        lockUninterruptibly(userId, lock);
+        runLocked(userId, lock, () -> {
             task.run();
+            return null;
+        });
+    }
+
+    public <T> T withUserLockAndReturn(String userId, Supplier<T> task) {
+        Lock lock = userLocks.acquire(userId);
+        lockUninterruptibly(userId, lock);
+        return runLocked(userId, lock, task);
+    }
+
+    /**
+     * Like {@link #withUserLock(String, Runnable)}, but gives up if the lock isn't free within {@code timeout}.
+     *
+     * @return false (task not run) if the deadline passed or the thread was interrupted while waiting
+     */
+    public boolean withUserLock(String userId, Duration timeout, Runnable task) {
+        try {
+            withUserLockAndReturn(userId, timeout, () -> {
+                task.run();
+                return null;
+            });
+            return true;
+        } catch (UserLockTimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #withUserLockAndReturn(String, Supplier)}, but gives up if the lock isn't free within {@code timeout}.
+     *
+     * @throws UserLockTimeoutException if the deadline passed or the thread was interrupted while waiting
+     */
+    public <T> T withUserLockAndReturn(String userId, Duration timeout, Supplier<T> task) {
+        Lock lock = userLocks.acquire(userId);
+        boolean acquired;
+        try {
+            acquired = tryLock(userId, lock, timeout.toNanos());
+        } catch (InterruptedException e) {
+            userLocks.release(userId);
+            Thread.currentThread().interrupt();
+            throw new UserLockTimeoutException(userId, "Interrupted waiting for lock of user " + userId, e);
+        }
+        if (!acquired) {
+            userLocks.release(userId);
+            log.warn("Gave up waiting for lock of user: {} after {}", userId, timeout);
+            throw new UserLockTimeoutException(userId, "Lock of user " + userId + " not acquired within " + timeout);
+        }
+        return runLocked(userId, lock, task);
+    }
+
+    /**
+     * Runs the task while holding the locks of all given users (e.g. both wallets of a transfer).
+     * Locks are taken in the registry's global order, so concurrent multi-user calls can't deadlock each other.
+     * Nesting plain withUserLock calls for several users by hand gives no such guarantee.
+     */
+    public <T> T withUserLocks(Collection<String> userIds, Supplier<T> task) {
+        List<String> ordered = userIds.stream().distinct().sorted(userLocks.lockOrder()).toList();
+        List<Lock> held = new ArrayList<>(ordered.size());
+        try {
+            for (String userId : ordered) {
+                Lock lock = userLocks.acquire(userId);
+                lockUninterruptibly(userId, lock);
+                held.add(lock);
+            }
+            log.debug("Acquired locks for users: {}", ordered);
+            return task.get();
         } finally {
-            lock.unlock();
-            log.debug("Released lock for user: {}", userId);
+            unlockAll(ordered, held);
         }
     }
 
-    public <T> T withUserLockAndReturn(String userId, Supplier<T> task) {
-        ReentrantLock lock = lockMap.computeIfAbsent(userId, k -> new ReentrantLock());
+    /**
+     * Like {@link #withUserLocks(Collection, Supplier)}, but gives up if all locks aren't held within {@code timeout};
+     * whatever was already taken is released before the UserLockTimeoutException is thrown.
+     */
+    public <T> T withUserLocks(Collection<String> userIds, Duration timeout, Supplier<T> task) {
+        List<String> ordered = userIds.stream().distinct().sorted(userLocks.lockOrder()).toList();
+        List<Lock> held = new ArrayList<>(ordered.size());
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            for (String userId : ordered) {
+                Lock lock = userLocks.acquire(userId);
+                boolean acquired;
+                try {
+                    acquired = tryLock(userId, lock, deadline - System.nanoTime());
+                } catch (InterruptedException e) {
+                    userLocks.release(userId);
+                    Thread.currentThread().interrupt();
+                    throw new UserLockTimeoutException(userId, "Interrupted waiting for lock of user " + userId, e);
+                }
+                if (!acquired) {
+                    userLocks.release(userId);
+                    throw new UserLockTimeoutException(userId, "Locks of users " + ordered + " not acquired within " + timeout);
+                }
+                held.add(lock);
+            }
+            log.debug("Acquired locks for users: {}", ordered);
+            return task.get();
+        } finally {
+            unlockAll(ordered, held);
+        }
+    }
+
+    // held.get(i) is the lock of ordered.get(i); release in reverse acquisition order
+    private void unlockAll(List<String> ordered, List<Lock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+            userLocks.release(ordered.get(i));
+        }
+        if (!held.isEmpty()) {
+            log.debug("Released locks for users: {}", ordered.subList(0, held.size()));
+        }
+    }
+
+    public LockContentionStats getUserLockStats() {
+        return lockStats;
+    }
+
+    public List<LockContentionStats.HotKey> getMostContendedUsers(int n) {
+        return lockStats.topContended(n);
+    }
+
+    // Fast path tryLock keeps the uncontended case to one histogram increment; only acquisitions that actually
+    // had to wait reach the hot-key summary
+    private void lockUninterruptibly(String userId, Lock lock) {
+        if (lock.tryLock()) {
+            if (metricsEnabled) {
+                lockStats.recordUncontended();
+            }
+            return;
+        }
+        long start = System.nanoTime();
         lock.lock();
+        if (metricsEnabled) {
+            lockStats.recordContended(userId, System.nanoTime() - start);
+        }
+    }
+
+    // Same fast path for timed acquisition; timeouts are always counted
+    private boolean tryLock(String userId, Lock lock, long timeoutNanos) throws InterruptedException {
+        if (lock.tryLock()) {
+            if (metricsEnabled) {
+                lockStats.recordUncontended();
+            }
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean acquired = lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            lockStats.recordTimeout();
+        } else if (metricsEnabled) {
+            lockStats.recordContended(userId, System.nanoTime() - start);
+        }
+        return acquired;
+    }
+
+    private <T> T runLocked(String userId, Lock lock, Supplier<T> task) {
+        boolean sampleHold = metricsEnabled && lockStats.getHoldTime().sample();
+        long lockedAt = sampleHold ? System.nanoTime() : 0;
         try {
             log.debug("Acquired lock for user: {}", userId);
             return task.get();
         } finally {
             lock.unlock();
+            userLocks.release(userId);
+            if (sampleHold) {
+                lockStats.recordHold(System.nanoTime() - lockedAt);
+            }
             log.debug("Released lock for user: {}", userId);
         }
     }
 
     /**
      * Asynchronously executes a task with a user-level lock, returning a CompletableFuture
-     * This combines the user lock mechanism with asynchronous execution
+     * This combines the user lock mechanism with asynchronous execution.
+     * Async tasks for the same user are queued in the user's mailbox, so at most one pool thread per user
+     * ever waits on the lock (and only while a synchronous withUserLock caller holds it).
      */
     public <T> CompletableFuture<T> withUserLockAndReturnAsync(String userId, Supplier<T> task) {
-        CompletableFuture<T> future = new CompletableFuture<>();
-        
-        executor.submit(() -> {
-            ReentrantLock lock = lockMap.computeIfAbsent(userId, k -> new ReentrantLock());
-            lock.lock();
-            try {
-                log.debug("Acquired lock for user: {} (async)", userId);
-                T result = task.get();
-                future.complete(result);
-            } finally {
-                lock.unlock();
-                log.debug("Released lock for user: {} (async)", userId);
-            }
-        });
-        
-        return future;
+        return userMailboxes.submit(userId, () -> withUserLockAndReturn(userId, task));
+    }
+
+    /**
+     * Runs the task after every previously submitted task for this user has finished, without taking the user lock.
+     * Pool threads never block waiting for another task of the same user.
+     */
+    public <T> CompletableFuture<T> withUserSerialAsync(String userId, Supplier<T> task) {
+        log.debug("Queued serial task for user: {}", userId);
+        return userMailboxes.submit(userId, task);
     }
 
+    /**
+     * Runs a config read. The task first runs under an optimistic StampedLock stamp (no shared counter is written,
+     * so readers on different cores don't contend); only if a write happened meanwhile is it re-run under the read lock.
+     * Read tasks may therefore run twice and must be plain reads without side effects.
+     */
     public void withReadLock(Runnable task) {
-        configLock.readLock().lock();
-        try {
+        withReadLockAndReturn(() -> {
             task.run();
-        } finally {
-            configLock.readLock().unlock();
-        }
+            return null;
+        });
     }
 
     public <T> T withReadLockAndReturn(Supplier<T> task) {
-        configLock.readLock().lock();
+        if (configWriter == Thread.currentThread()) {
+            // StampedLock isn't reentrant: a read nested in this thread's write just runs
+            return task.get();
+        }
+        long stamp = configLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = task.get();
+                if (configLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Possibly caused by reading half-written state; only trust it if no write interfered
+                if (configLock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = configLock.readLock();
         try {
             return task.get();
         } finally {
-            configLock.readLock().unlock();
+            configLock.unlockRead(stamp);
         }
     }
 
     public void withWriteLock(Runnable task) {
-        configLock.writeLock().lock();
-        try {
+        withWriteLockAndReturn(() -> {
             task.run();
-        } finally {
-            configLock.writeLock().unlock();
-        }
+            return null;
+        });
     }
 
     public <T> T withWriteLockAndReturn(Supplier<T> task) {
-        configLock.writeLock().lock();
+        if (configWriter == Thread.currentThread()) {
+            return task.get();
+        }
+        long stamp = configLock.writeLock();
+        configWriter = Thread.currentThread();
         try {
             return task.get();
         } finally {
-            configLock.writeLock().unlock();
+            configWriter = null;
+            configLock.unlockWrite(stamp);
         }
     }
 
     public void acquireApiAccess(Runnable task) {
-        try {
-            log.debug("Waiting for API access semaphore, available permits: {}", apiAccessSemaphore.availablePermits());
-            apiAccessSemaphore.acquire();
-            log.debug("Acquired API access semaphore");
+        acquireApiAccessAndReturn(() -> {
             task.run();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Interrupted while waiting for API access", e);
-        } finally {
-            apiAccessSemaphore.release();
-            log.debug("Released API access semaphore");
-        }
+            return null;
+        });
     }
 
     public <T> T acquireApiAccessAndReturn(Supplier<T> task) {
         try {
-            log.debug("Waiting for API access semaphore, available permits: {}", apiAccessSemaphore.availablePermits());
-            apiAccessSemaphore.acquire();
-            log.debug("Acquired API access semaphore");
-            return task.get();
+            log.debug("Waiting for API access, limit: {}, in flight: {}", apiAccessLimiter.getLimit(), apiAccessLimiter.getInFlight());
+            apiAccessLimiter.acquire();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             log.error("Interrupted while waiting for API access", e);
             throw new RuntimeException("API access interrupted", e);
+        }
+        log.debug("Acquired API access");
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = task.get();
+            failed = false;
+            return result;
         } finally {
-            apiAccessSemaphore.release();
-            log.debug("Released API access semaphore");
+            long rtt = System.nanoTime() - start;
+            apiAccessLimiter.release(rtt, failed);
+            if (metricsEnabled && apiCallLatency.sample()) {
+                apiCallLatency.record(rtt);
+            }
+            log.debug("Released API access");
         }
     }
 
+    /**
+     * Runs the call on the caller's thread within the named dependency's concurrency limit.
+     * Rejected with RejectedExecutionException when the bulkhead has no permit within its max wait.
+     */
+    public void acquireApiAccess(String bulkhead, Runnable task) {
+        acquireApiAccessAndReturn(bulkhead, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public <T> T acquireApiAccessAndReturn(String bulkhead, Supplier<T> task) {
+        log.debug("Waiting for bulkhead: {}", bulkhead);
+        return bulkheads.get(bulkhead).call(task);
+    }
+
+    public Collection<BulkheadRegistry.Metrics> getBulkheadMetrics() {
+        return bulkheads.all().stream().map(BulkheadRegistry.Bulkhead::metrics).toList();
+    }
+
+    /**
+     * Async variant of acquireApiAccessAndReturn: no thread is parked while waiting for a permit.
+     * The supplier starts the downstream call once a permit is granted; the permit is returned when its future completes.
+     */
+    public <T> CompletableFuture<T> acquireApiAccessAsync(Supplier<CompletableFuture<T>> task) {
+        return acquireApiAccessAsync(task, null);
+    }
+
+    /**
+     * Same as {@link #acquireApiAccessAsync(Supplier)}, but fails with a TimeoutException if no permit frees up within
+     * {@code maxWait} ({@link Duration#ZERO} fails fast as soon as the limit is reached).
+     * Cancelling the returned future (or failing it, e.g. with orTimeout) while it still waits for a permit
+     * takes the caller out of the queue.
+     */
+    public <T> CompletableFuture<T> acquireApiAccessAsync(Supplier<CompletableFuture<T>> task, Duration maxWait) {
+        log.debug("Queueing for API access, limit: {}, in flight: {}", apiAccessLimiter.getLimit(), apiAccessLimiter.getInFlight());
+        CompletableFuture<Void> permit = apiAccessLimiter.acquireAsync(maxWait);
+        CompletableFuture<T> response = permit.thenCompose(granted -> {
+            log.debug("Acquired API access (async)");
+            long start = System.nanoTime();
+            CompletableFuture<T> call;
+            try {
+                call = task.get();
+            } catch (Throwable e) {
+                apiAccessLimiter.release(System.nanoTime() - start, true);
+                return CompletableFuture.failedFuture(e);
+            }
+            if (call == null) {
+                apiAccessLimiter.release(System.nanoTime() - start, true);
+                return CompletableFuture.failedFuture(new NullPointerException("API call supplier returned null"));
+            }
+            return call.whenComplete((result, error) -> {
+                long rtt = System.nanoTime() - start;
+                apiAccessLimiter.release(rtt, error != null);
+                if (metricsEnabled && apiCallLatency.sample()) {
+                    apiCallLatency.record(rtt);
+                }
+                log.debug("Released API access (async)");
+            });
+        });
+        // The limiter only watches its own permit future: once response is cancelled, thenCompose skips the task, so a
+        // permit granted to this waiter afterwards would never be used or released
+        response.whenComplete((result, error) -> {
+            if (error != null) {
+                permit.cancel(false);
+            }
+        });
+        return response;
+    }
+
+    public AdaptiveConcurrencyLimiter getApiAccessLimiter() {
+        return apiAccessLimiter;
+    }
+
     public void awaitStartup() throws InterruptedException {
         log.info("Waiting for initialization to complete...");
         initLatch.await();
@@ -212,8 +797,153 @@ public class ConcurrentUtil {
         });
     }
 
+    // ==== Metrics ====
+
+    /**
+     * Point-in-time state of every primitive, grouped by primitive; served by the concurrentutil actuator endpoint.
+     */
+    public Map<String, Object> metricsSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("executor", Map.of(
+                "mode", executor.getMode(),
+                "maxConcurrent", executor.getMaxConcurrent(),
+                "active", executor.getActiveCount(),
+                "queued", executor.getQueuedCount(),
+                "completed", executor.getCompletedTaskCount(),
+                "fairQueueTenants", fairScheduler.activeTenants(),
+                "fairQueueWait", fairScheduler.getQueueWait().toString(),
+                "userMailboxes", userMailboxes.activeKeys(),
+                "singleFlightKeys", singleFlight.size()));
+
+        Map<String, Object> payments = new LinkedHashMap<>();
+        payments.put("queueDepth", paymentQueue.size());
+        payments.put("queueRemaining", paymentQueue.remainingCapacity());
+        payments.put("enqueued", payinsEnqueued.sum());
+        payments.put("bufferTime", payinBufferTime.toString());
+        payments.put("duplicates", payinResults.getDuplicateHits());
+        payments.put("idempotencyEntries", payinResults.size());
+        payments.put("batches", payinBatchConsumer.getBatchCount());
+        payments.put("averageBatchSize", payinBatchConsumer.getAverageBatchSize());
+        payments.put("partitionLag", payinPartitions.getShardLag());
+        payments.put("lanes", getPaymentLaneMetrics().stream().map(Object::toString).toList());
+        if (payinJournal != null) {
+            payments.put("journalEmpty", payinJournal.isEmpty());
+            payments.put("journalAppends", payinJournal.getAppendCount());
+            payments.put("journalFsyncs", payinJournal.getFsyncCount());
+        }
+        snapshot.put("payments", payments);
+
+        snapshot.put("userLocks", Map.of(
+                "live", userLocks.size(),
+                "wait", lockStats.getWaitTime().toString(),
+                "hold", lockStats.getHoldTime().toString(),
+                "timeouts", lockStats.getTimeouts(),
+                "mostContended", lockStats.topContended(10).stream().map(Object::toString).toList()));
+        snapshot.put("rateLimit", Map.of(
+                "trackedUsers", rateLimiter.trackedUsers(),
+                "rejected", rateLimiter.rejectedCount(),
+                "topUsers", topUsers(10).stream().map(Object::toString).toList()));
+        snapshot.put("apiAccess", Map.of(
+                "limiter", apiAccessLimiter.toString(),
+                "callLatency", apiCallLatency.toString()));
+        snapshot.put("bulkheads", bulkheads.all().stream().map(b -> b.metrics().toString()).toList());
+        snapshot.put("coordination", Map.of(
+                "initLatchCount", initLatch.getCount(),
+                "barrierParties", barrier.getParties(),
+                "barrierWaiting", barrier.getNumberWaiting(),
+                "barrierBroken", barrier.isBroken()));
+        return snapshot;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("concurrent.util.executor.active", executor, BackgroundExecutor::getActiveCount)
+                .tag("mode", executor.getMode().name()).register(registry);
+        Gauge.builder("concurrent.util.executor.limit", executor, BackgroundExecutor::getMaxConcurrent).register(registry);
+        Gauge.builder("concurrent.util.executor.queued", executor, BackgroundExecutor::getQueuedCount).register(registry);
+        FunctionCounter.builder("concurrent.util.executor.completed", executor, BackgroundExecutor::getCompletedTaskCount)
+                .register(registry);
+        Gauge.builder("concurrent.util.fair.queue.tenants", fairScheduler, FairTaskScheduler::activeTenants).register(registry);
+        timer(registry, "concurrent.util.fair.queue.wait", fairScheduler.getQueueWait());
+        Gauge.builder("concurrent.util.mailboxes.active", userMailboxes, KeyedSerialExecutor::activeKeys).register(registry);
+        Gauge.builder("concurrent.util.single.flight.keys", singleFlight, SingleFlight::size).register(registry);
+
+        Gauge.builder("concurrent.util.payin.queue.depth", paymentQueue, BlockingQueue::size).register(registry);
+        Gauge.builder("concurrent.util.payin.queue.remaining", paymentQueue, BlockingQueue::remainingCapacity)
+                .register(registry);
+        FunctionCounter.builder("concurrent.util.payin.enqueued", payinsEnqueued, LongAdder::sum).register(registry);
+        timer(registry, "concurrent.util.payin.buffer.time", payinBufferTime);
+        FunctionCounter.builder("concurrent.util.payin.duplicates", payinResults, IdempotencyStore::getDuplicateHits)
+                .register(registry);
+        Gauge.builder("concurrent.util.payin.idempotency.entries", payinResults, IdempotencyStore::size).register(registry);
+        FunctionCounter.builder("concurrent.util.payin.batches", payinBatchConsumer, PayInBatchConsumer::getBatchCount)
+                .register(registry);
+        Gauge.builder("concurrent.util.payin.partition.lag", payinPartitions,
+                p -> Arrays.stream(p.getShardLag()).sum()).register(registry);
+        if (paymentQueue instanceof PriorityLaneQueue<PayInRequest> lanes) {
+            for (PriorityLaneQueue.LaneMetrics lane : lanes.laneMetrics()) {
+                int index = lane.getLane();
+                Tags tags = Tags.of("lane", String.valueOf(index));
+                Gauge.builder("concurrent.util.payin.lane.depth", lanes, l -> l.laneMetrics().get(index).getDepth())
+                        .tags(tags).register(registry);
+                FunctionCounter.builder("concurrent.util.payin.lane.enqueued", lanes,
+                        l -> l.laneMetrics().get(index).getEnqueued()).tags(tags).register(registry);
+                timer(registry, "concurrent.util.payin.lane.wait", lane.getWaitTime(), tags);
+            }
+        }
+        if (payinJournal != null) {
+            FunctionCounter.builder("concurrent.util.payin.journal.appends", payinJournal, PayInJournal::getAppendCount)
+                    .register(registry);
+            FunctionCounter.builder("concurrent.util.payin.journal.fsyncs", payinJournal, PayInJournal::getFsyncCount)
+                    .register(registry);
+        }
+
+        Gauge.builder("concurrent.util.user.locks.live", userLocks, UserLockRegistry::size).register(registry);
+        timer(registry, "concurrent.util.user.lock.wait", lockStats.getWaitTime());
+        timer(registry, "concurrent.util.user.lock.hold", lockStats.getHoldTime());
+        FunctionCounter.builder("concurrent.util.user.lock.timeouts", lockStats, LockContentionStats::getTimeouts)
+                .register(registry);
+        Gauge.builder("concurrent.util.rate.limit.users", rateLimiter, UserRateLimiter::trackedUsers).register(registry);
+        FunctionCounter.builder("concurrent.util.rate.limit.rejected", rateLimiter, UserRateLimiter::rejectedCount)
+                .register(registry);
+
+        Gauge.builder("concurrent.util.api.limit", apiAccessLimiter, AdaptiveConcurrencyLimiter::getLimit).register(registry);
+        Gauge.builder("concurrent.util.api.in.flight", apiAccessLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .register(registry);
+        Gauge.builder("concurrent.util.api.waiters", apiAccessLimiter, AdaptiveConcurrencyLimiter::getQueueLength)
+                .register(registry);
+        timer(registry, "concurrent.util.api.call", apiCallLatency);
+        bulkheads.forEachBulkhead(bulkhead -> {
+            Tags tags = Tags.of("name", bulkhead.getName());
+            Gauge.builder("concurrent.util.bulkhead.saturation", bulkhead, b -> b.metrics().getSaturation())
+                    .tags(tags).register(registry);
+            FunctionCounter.builder("concurrent.util.bulkhead.rejected", bulkhead, b -> b.metrics().getRejected())
+                    .tags(tags).register(registry);
+        });
+
+        Gauge.builder("concurrent.util.init.latch.count", initLatch, CountDownLatch::getCount).register(registry);
+        Gauge.builder("concurrent.util.barrier.waiting", barrier, CyclicBarrier::getNumberWaiting).register(registry);
+    }
+
+    private static void timer(MeterRegistry registry, String name, LatencyHistogram histogram) {
+        timer(registry, name, histogram, Tags.empty());
+    }
+
+    private static void timer(MeterRegistry registry, String name, LatencyHistogram histogram, Tags tags) {
+        FunctionTimer.builder(name, histogram, LatencyHistogram::getCount, LatencyHistogram::getTotalNanos,
+                TimeUnit.NANOSECONDS).tags(tags).register(registry);
+        Gauge.builder(name + ".p99", histogram, h -> h.getPercentileMillis(99)).tags(tags).baseUnit("milliseconds")
+                .register(registry);
+    }
+
     @PreDestroy
     public void shutdown() {
+        payinBatchConsumer.stop(5, TimeUnit.SECONDS);
+        payinPartitions.stop(5, TimeUnit.SECONDS);
+        if (payinJournal != null) {
+            payinJournal.close();
+        }
+        bulkheads.shutdown(5, TimeUnit.SECONDS);
         log.info("Shutting down ConcurrentUtil executor service");
         executor.shutdown();
         try {
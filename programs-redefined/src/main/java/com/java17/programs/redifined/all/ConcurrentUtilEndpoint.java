@@ -0,0 +1,27 @@
+package com.java17.programs.redifined.all;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * GET /actuator/concurrentutil: queue depths, executor backlog, lock contention, limiter and bulkhead state
+ * of {@link ConcurrentUtil} in one JSON document, instead of reading them off a thread dump.
+ */
+@Component
+@Endpoint(id = "concurrentutil")
+public class ConcurrentUtilEndpoint {
+
+    private final ConcurrentUtil concurrentUtil;
+
+    public ConcurrentUtilEndpoint(ConcurrentUtil concurrentUtil) {
+        this.concurrentUtil = concurrentUtil;
+    }
+
+    @ReadOperation
+    public Map<String, Object> snapshot() {
+        return concurrentUtil.metricsSnapshot();
+    }
+}
@@ -0,0 +1,132 @@
+package com.java17.programs.redifined.all;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures what instrumentation costs on ConcurrentUtil's hot paths: the same mixed workload (request tracking,
+ * rate check, user lock, config read, API permit) with concurrent-util.metrics.enabled on and off. With metrics
+ * on, all meters are also bound to a registry and scraped every 100ms, as a Prometheus scrape would.
+ *
+ * The cost is measured as CPU time per operation (worker threads plus the scraper), not wall-clock throughput,
+ * so time the machine spends on other work doesn't count. Each round runs both setups back to back (in
+ * alternating order) and yields one paired overhead; pairing cancels the slow drift of a noisy machine, and the
+ * mean over many rounds comes with a 95% confidence interval. The 2% target counts as met only if the upper end
+ * of that interval is below 2%; if the interval is wider than that, the run says so instead of guessing.
+ *
+ * -Drounds (default 40) and -Dseconds per setup and round (default 2) trade run time against resolution;
+ * -Dthreads=1 roughly halves the per-round spread on a machine with few cores.
+ *
+ * On a noisy single-CPU VM, -Dthreads=1 -Drounds=150 -Dseconds=1 measured 1.92% +- 1.15%: the cost is about
+ * 2% (a few ns of sampling checks on a ~950 ns operation), so the <2% target is not met with confidence.
+ */
+public class ConcurrentUtilMetricsOverhead {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Integer.getInteger("threads", 8);
+        int rounds = Integer.getInteger("rounds", 40);
+        int seconds = Integer.getInteger("seconds", 2);
+        double[] overheads = new double[rounds];
+        // Warm-up
+        run(true, threads, 2);
+        run(false, threads, 2);
+        for (int round = 0; round < rounds; round++) {
+            // Alternate which setup goes first, so neither always inherits the other's garbage
+            double on;
+            double off;
+            if (round % 2 == 0) {
+                on = run(true, threads, seconds);
+                off = run(false, threads, seconds);
+            } else {
+                off = run(false, threads, seconds);
+                on = run(true, threads, seconds);
+            }
+            overheads[round] = (on - off) * 100 / off;
+            System.out.printf("round %d: metrics on %.1f ns/op, off %.1f ns/op, overhead %.2f%%%n", round, on, off, overheads[round]);
+        }
+        double mean = Arrays.stream(overheads).average().orElseThrow();
+        double variance = Arrays.stream(overheads).map(o -> (o - mean) * (o - mean)).sum() / (rounds - 1);
+        double halfWidth = 1.96 * Math.sqrt(variance / rounds);
+        System.out.printf("overhead %.2f%% +- %.2f%% (95%% confidence, %d rounds, per-round spread +-%.1f%%)%n",
+                mean, halfWidth, rounds, Math.sqrt(variance));
+        if (mean + halfWidth < 2) {
+            System.out.println("below the 2% target");
+        } else if (mean - halfWidth >= 2) {
+            System.out.println("above the 2% target");
+        } else {
+            System.out.println("not resolved: the interval straddles 2%, run more rounds or on a quieter machine");
+        }
+    }
+
+    // CPU nanoseconds per operation
+    private static double run(boolean metrics, int threads, int seconds) throws InterruptedException {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        LongAdder cpuNanos = new LongAdder();
+        System.gc();
+        ConcurrentUtilProperties properties = new ConcurrentUtilProperties();
+        properties.getMetrics().setEnabled(metrics);
+        properties.getRateLimit().setPermitsPerSecond(1_000_000);
+        ConcurrentUtil util = new ConcurrentUtil(properties);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Thread scraper = null;
+        if (metrics) {
+            util.bindTo(registry);
+            scraper = new Thread(() -> {
+                long cpuStart = threadBean.getCurrentThreadCpuTime();
+                while (!Thread.currentThread().isInterrupted()) {
+                    for (Meter meter : registry.getMeters()) {
+                        meter.measure().forEach(measurement -> measurement.getValue());
+                    }
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                cpuNanos.add(threadBean.getCurrentThreadCpuTime() - cpuStart);
+            }, "scraper");
+            scraper.setDaemon(true);
+            scraper.start();
+        }
+
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[] balances = new long[1_000];
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long cpuStart = threadBean.getCurrentThreadCpuTime();
+                long local = 0;
+                while (System.nanoTime() - end < 0) {
+                    int user = random.nextInt(balances.length);
+                    String userId = "user-" + user;
+                    util.trackRequest(userId);
+                    util.tryAcquire(userId, 1);
+                    util.withUserLock(userId, () -> balances[user]++);
+                    util.withReadLockAndReturn(() -> balances.length);
+                    util.acquireApiAccessAndReturn(() -> balances[user]);
+                    local++;
+                }
+                cpuNanos.add(threadBean.getCurrentThreadCpuTime() - cpuStart);
+                ops.add(local);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        if (scraper != null) {
+            scraper.interrupt();
+            scraper.join();
+        }
+        util.shutdown();
+        return (double) cpuNanos.sum() / ops.sum();
+    }
+}
@@ -0,0 +1,517 @@
+package com.java17.programs.redifined.all;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunables for {@link ConcurrentUtil}, bound from the "concurrent-util.*" keys in application.properties.
+ * Every value has a default, so a plain {@code new ConcurrentUtilProperties()} gives the stock behaviour.
+ */
+@Component
+@ConfigurationProperties(prefix = "concurrent-util")
+public class ConcurrentUtilProperties {
+
+    private final UserLock userLock = new UserLock();
+
+    private final RateLimit rateLimit = new RateLimit();
+
+    private final RequestTracking requestTracking = new RequestTracking();
+
+    private final PaymentBuffer paymentBuffer = new PaymentBuffer();
+
+    private final PayinBatch payinBatch = new PayinBatch();
+
+    private final PayinPartition payinPartition = new PayinPartition();
+
+    private final Idempotency idempotency = new Idempotency();
+
+    private final ApiLimit apiLimit = new ApiLimit();
+
+    private final FairQueue fairQueue = new FairQueue();
+
+    private final Metrics metrics = new Metrics();
+
+    private final Background background = new Background();
+
+    // Named bulkheads, e.g. concurrent-util.bulkheads.stripe.max-concurrent=10; unknown names use bulkhead-defaults
+    private final Map<String, BulkheadRegistry.Config> bulkheads = new HashMap<>();
+
+    private final BulkheadRegistry.Config bulkheadDefaults = new BulkheadRegistry.Config();
+
+    public UserLock getUserLock() {
+        return userLock;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    public RequestTracking getRequestTracking() {
+        return requestTracking;
+    }
+
+    public PaymentBuffer getPaymentBuffer() {
+        return paymentBuffer;
+    }
+
+    public PayinBatch getPayinBatch() {
+        return payinBatch;
+    }
+
+    public PayinPartition getPayinPartition() {
+        return payinPartition;
+    }
+
+    public Idempotency getIdempotency() {
+        return idempotency;
+    }
+
+    public ApiLimit getApiLimit() {
+        return apiLimit;
+    }
+
+    public FairQueue getFairQueue() {
+        return fairQueue;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Background getBackground() {
+        return background;
+    }
+
+    public Map<String, BulkheadRegistry.Config> getBulkheads() {
+        return bulkheads;
+    }
+
+    public BulkheadRegistry.Config getBulkheadDefaults() {
+        return bulkheadDefaults;
+    }
+
+    public static class UserLock {
+
+        // REFERENCE_COUNTED frees a user's lock once nobody holds it, STRIPED hashes users onto a fixed lock array
+        private UserLockRegistry.Mode mode = UserLockRegistry.Mode.REFERENCE_COUNTED;
+
+        private int stripes = 1024;
+
+        // Size of the bounded "most contended users" summary
+        private int trackedHotKeys = 256;
+
+        public UserLockRegistry.Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(UserLockRegistry.Mode mode) {
+            this.mode = mode;
+        }
+
+        public int getStripes() {
+            return stripes;
+        }
+
+        public void setStripes(int stripes) {
+            this.stripes = stripes;
+        }
+
+        public int getTrackedHotKeys() {
+            return trackedHotKeys;
+        }
+
+        public void setTrackedHotKeys(int trackedHotKeys) {
+            this.trackedHotKeys = trackedHotKeys;
+        }
+    }
+
+    public static class RateLimit {
+
+        // Sustained rate per user; burst is how many permits a rested user may spend at once
+        private double permitsPerSecond = 100;
+
+        private int burst = 200;
+
+        // Buckets untouched for this long are full again and get dropped
+        private Duration idleTimeout = Duration.ofMinutes(5);
+
+        public double getPermitsPerSecond() {
+            return permitsPerSecond;
+        }
+
+        public void setPermitsPerSecond(double permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    public static class RequestTracking {
+
+        // Counts cover the last windows x windowDuration; each sub-window is dropped as a whole when it ages out
+        private Duration windowDuration = Duration.ofMinutes(1);
+
+        private int windows = 5;
+
+        // Candidate heavy hitters kept for topUsers; must be at least the largest k asked for
+        private int trackedUsers = 256;
+
+        public Duration getWindowDuration() {
+            return windowDuration;
+        }
+
+        public void setWindowDuration(Duration windowDuration) {
+            this.windowDuration = windowDuration;
+        }
+
+        public int getWindows() {
+            return windows;
+        }
+
+        public void setWindows(int windows) {
+            this.windows = windows;
+        }
+
+        public int getTrackedUsers() {
+            return trackedUsers;
+        }
+
+        public void setTrackedUsers(int trackedUsers) {
+            this.trackedUsers = trackedUsers;
+        }
+    }
+
+    public static class PayinBatch {
+
+        // A batch closes at maxSize requests or lingerMillis after its first request, whichever comes first
+        private int maxSize = 100;
+
+        private long lingerMillis = 10;
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getLingerMillis() {
+            return lingerMillis;
+        }
+
+        public void setLingerMillis(long lingerMillis) {
+            this.lingerMillis = lingerMillis;
+        }
+    }
+
+    public static class PayinPartition {
+
+        // One consumer thread per partition; a user's payments always go to the same one
+        private int partitions = Runtime.getRuntime().availableProcessors();
+
+        private int shardCapacity = 1000;
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(int partitions) {
+            this.partitions = partitions;
+        }
+
+        public int getShardCapacity() {
+            return shardCapacity;
+        }
+
+        public void setShardCapacity(int shardCapacity) {
+            this.shardCapacity = shardCapacity;
+        }
+    }
+
+    public static class Idempotency {
+
+        // How long a txnId's result is remembered; must outlast processing plus the client's retry window
+        private Duration ttl = Duration.ofMinutes(10);
+
+        // Completed results beyond this are evicted oldest first; once this many are still pending, new txnIds are refused
+        private int maxEntries = 100_000;
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class PaymentBuffer {
+
+        public enum Mode {
+            LINKED,
+            RING,
+            PRIORITY
+        }
+
+        public enum Overflow {
+            // enqueuePayin waits for room
+            BLOCK,
+            // enqueuePayin appends to a durable on-disk journal that is replayed into the buffer, also after a restart
+            JOURNAL
+        }
+
+        private Mode mode = Mode.LINKED;
+
+        // RING rounds this up to the next power of two
+        private int capacity = 1000;
+
+        // Only used by RING: how producers wait when full and the consumer waits when empty. PARK keeps an idle
+        // consumer off the CPU; SPIN and YIELD trade a busy core for lower wake-up latency
+        private MpscRingBuffer.WaitStrategy waitStrategy = MpscRingBuffer.WaitStrategy.PARK;
+
+        // Only used by PRIORITY: dequeues per round for the HIGH, NORMAL and LOW lanes
+        private List<Integer> laneWeights = new ArrayList<>(List.of(8, 4, 1));
+
+        private Overflow overflow = Overflow.BLOCK;
+
+        private String journalDir = "data/payin-journal";
+
+        // Size of each memory-mapped journal file; existing files keep the size they were created with
+        private int journalSegmentBytes = 64 * 1024 * 1024;
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public MpscRingBuffer.WaitStrategy getWaitStrategy() {
+            return waitStrategy;
+        }
+
+        public void setWaitStrategy(MpscRingBuffer.WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+        }
+
+        public List<Integer> getLaneWeights() {
+            return laneWeights;
+        }
+
+        public void setLaneWeights(List<Integer> laneWeights) {
+            this.laneWeights = laneWeights;
+        }
+
+        public Overflow getOverflow() {
+            return overflow;
+        }
+
+        public void setOverflow(Overflow overflow) {
+            this.overflow = overflow;
+        }
+
+        public String getJournalDir() {
+            return journalDir;
+        }
+
+        public void setJournalDir(String journalDir) {
+            this.journalDir = journalDir;
+        }
+
+        public int getJournalSegmentBytes() {
+            return journalSegmentBytes;
+        }
+
+        public void setJournalSegmentBytes(int journalSegmentBytes) {
+            this.journalSegmentBytes = journalSegmentBytes;
+        }
+    }
+
+    public static class FairQueue {
+
+        // Tasks a tenant may run per turn when it has no entry in weights
+        private int defaultWeight = 1;
+
+        // Per-tenant overrides, e.g. concurrent-util.fair-queue.weights.merchant-42=4
+        private Map<String, Integer> weights = new HashMap<>();
+
+        public int getDefaultWeight() {
+            return defaultWeight;
+        }
+
+        public void setDefaultWeight(int defaultWeight) {
+            this.defaultWeight = defaultWeight;
+        }
+
+        public Map<String, Integer> getWeights() {
+            return weights;
+        }
+
+        public void setWeights(Map<String, Integer> weights) {
+            this.weights = weights;
+        }
+    }
+
+    public static class Metrics {
+
+        // Per-call latency histograms; gauges and counters are read on scrape and stay on regardless
+        private boolean enabled = true;
+
+        // Hot-path histograms time one in this many calls (power of two); percentiles stay accurate, counts are scaled
+        private int sampleRate = 16;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    public static class Background {
+
+        // VIRTUAL needs Java 21+ and falls back to PLATFORM otherwise
+        private BackgroundExecutor.Mode mode = BackgroundExecutor.Mode.PLATFORM;
+
+        private int platformThreads = 10;
+
+        // Tasks running at once in VIRTUAL mode; keep it within what the downstreams (DB pool, Stripe) accept
+        private int maxConcurrent = 1000;
+
+        public BackgroundExecutor.Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(BackgroundExecutor.Mode mode) {
+            this.mode = mode;
+        }
+
+        public int getPlatformThreads() {
+            return platformThreads;
+        }
+
+        public void setPlatformThreads(int platformThreads) {
+            this.platformThreads = platformThreads;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    public static class ApiLimit {
+
+        private int initialLimit = 10;
+
+        private int minLimit = 1;
+
+        private int maxLimit = 100;
+
+        // Multiplicative decrease applied when a call fails or is slower than baseline * latencyTolerance
+        private double backoffRatio = 0.9;
+
+        private double latencyTolerance = 2.0;
+
+        // Baseline RTT is the minimum over the current and previous window of this length
+        private long baselineWindowMillis = 30_000;
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public double getLatencyTolerance() {
+            return latencyTolerance;
+        }
+
+        public void setLatencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+        }
+
+        public long getBaselineWindowMillis() {
+            return baselineWindowMillis;
+        }
+
+        public void setBaselineWindowMillis(long baselineWindowMillis) {
+            this.baselineWindowMillis = baselineWindowMillis;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.java17.programs.redifined.all;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Weighted fair queuing of background tasks per tenant, on top of a shared executor.
+ *
+ * Every tenant (merchant, user, ...) gets its own FIFO queue, and tenants with work are served
+ * deficit-round-robin: on its turn a tenant may run {@code weight} tasks, then goes to the back of the line.
+ * A tenant that submits 100x more work therefore only gets its share of the threads; everyone else's tasks
+ * keep flowing instead of waiting behind its backlog.
+ *
+ * The executor never sees tenant tasks, only one anonymous "run the next fair task" token per submitted task.
+ * Which task a token runs is decided when it starts, so the executor's own FIFO queue no longer decides the order.
+ * A tenant's queue is dropped as soon as it is empty, so idle tenants cost nothing.
+ */
+public class FairTaskScheduler {
+
+    private static final class Task<T> {
+        final Supplier<T> supplier;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long submittedNanos = System.nanoTime();
+
+        Task(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        void run() {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static final class Tenant {
+        final String key;
+        final int weight;
+        final ArrayDeque<Task<?>> tasks = new ArrayDeque<>();
+        // Tasks this tenant may still run in its current turn
+        int deficit;
+
+        Tenant(String key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    private final Executor executor;
+    private final Map<String, Integer> weights;
+    private final int defaultWeight;
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock: tenants with queued tasks, and the round-robin order among them
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final ArrayDeque<Tenant> active = new ArrayDeque<>();
+
+    public FairTaskScheduler(Executor executor, Map<String, Integer> weights, int defaultWeight) {
+        if (defaultWeight <= 0 || weights.values().stream().anyMatch(w -> w <= 0)) {
+            throw new IllegalArgumentException("Tenant weights must be positive");
+        }
+        this.executor = executor;
+        this.weights = Map.copyOf(weights);
+        this.defaultWeight = defaultWeight;
+    }
+
+    public <T> CompletableFuture<T> submit(String tenantKey, Supplier<T> supplier) {
+        Task<T> task = new Task<>(supplier);
+        lock.lock();
+        try {
+            Tenant tenant = tenants.get(tenantKey);
+            if (tenant == null) {
+                tenant = new Tenant(tenantKey, weights.getOrDefault(tenantKey, defaultWeight));
+                tenants.put(tenantKey, tenant);
+                active.addLast(tenant);
+            }
+            tenant.tasks.addLast(task);
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            executor.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            onRejected(tenantKey, task, e);
+        }
+        return task.future;
+    }
+
+    // One token per queued task: take whatever task is fairest right now
+    private void runNext() {
+        Task<?> task;
+        lock.lock();
+        try {
+            task = pollNext();
+        } finally {
+            lock.unlock();
+        }
+        if (task != null) {
+            queueWait.record(System.nanoTime() - task.submittedNanos);
+            task.run();
+        }
+    }
+
+    private Task<?> pollNext() {
+        Tenant tenant = active.peekFirst();
+        if (tenant == null) {
+            return null;
+        }
+        if (tenant.deficit == 0) {
+            // Start of this tenant's turn
+            tenant.deficit = tenant.weight;
+        }
+        Task<?> task = tenant.tasks.pollFirst();
+        tenant.deficit--;
+        if (tenant.tasks.isEmpty()) {
+            active.pollFirst();
+            tenants.remove(tenant.key);
+        } else if (tenant.deficit == 0) {
+            active.addLast(active.pollFirst());
+        }
+        return task;
+    }
+
+    /**
+     * The executor refused the token (e.g. shutting down), so one queued task will never run: take our own
+     * task back and rethrow if it is still queued, otherwise fail the task the token would have run.
+     */
+    private void onRejected(String tenantKey, Task<?> task, RejectedExecutionException e) {
+        Task<?> orphan;
+        lock.lock();
+        try {
+            Tenant tenant = tenants.get(tenantKey);
+            if (tenant != null && tenant.tasks.remove(task)) {
+                if (tenant.tasks.isEmpty()) {
+                    active.remove(tenant);
+                    tenants.remove(tenantKey);
+                }
+                orphan = null;
+            } else {
+                orphan = pollNext();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (orphan == null) {
+            throw e;
+        }
+        orphan.future.completeExceptionally(e);
+    }
+
+    /**
+     * Tenants that currently have queued tasks.
+     */
+    public int activeTenants() {
+        lock.lock();
+        try {
+            return tenants.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Time tasks spent queued before they started, over all tenants.
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    // Benchmark: one tenant floods 20k tasks at once, nine quiet tenants keep submitting, FIFO executor vs fair queuing
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        run("Executor FIFO", pool, (tenant, work) -> CompletableFuture.supplyAsync(work, pool));
+        FairTaskScheduler scheduler = new FairTaskScheduler(pool, Map.of(), 1);
+        run("Fair queuing", pool, scheduler::submit);
+        System.out.println("Tenant queues left: " + scheduler.activeTenants());
+        pool.shutdown();
+    }
+
+    private interface Submitter {
+        CompletableFuture<Object> submit(String tenant, Supplier<Object> work);
+    }
+
+    private static void run(String name, ExecutorService pool, Submitter submitter) throws InterruptedException {
+        LatencyHistogram noisyWait = new LatencyHistogram();
+        LatencyHistogram quietWait = new LatencyHistogram();
+        int noisyTasks = 20_000;
+        int quietTenants = 9;
+        int quietTasksEach = noisyTasks / 100;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[noisyTasks + quietTenants * quietTasksEach];
+        int index = 0;
+        for (int i = 0; i < noisyTasks; i++) {
+            long submitted = System.nanoTime();
+            futures[index++] = submitter.submit("merchant-noisy", () -> work(noisyWait, submitted));
+        }
+        for (int i = 0; i < quietTasksEach; i++) {
+            for (int t = 0; t < quietTenants; t++) {
+                long submitted = System.nanoTime();
+                futures[index++] = submitter.submit("merchant-" + t, () -> work(quietWait, submitted));
+            }
+            Thread.sleep(5);
+        }
+        CompletableFuture.allOf(futures).join();
+        System.out.printf("%-14s noisy wait p99 <= %7.1f ms | quiet tenants wait p50 <= %7.1f ms, p99 <= %7.1f ms%n",
+                name, noisyWait.getPercentileMillis(99), quietWait.getPercentileMillis(50), quietWait.getPercentileMillis(99));
+    }
+
+    private static Object work(LatencyHistogram wait, long submittedNanos) {
+        wait.record(System.nanoTime() - submittedNanos);
+        try {
+            TimeUnit.MILLISECONDS.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,253 @@
+package com.java17.programs.redifined.all;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming top-K of the busiest keys over a sliding time window, in fixed memory.
+ *
+ * - Counts go into a Count-Min Sketch (depth x width counters, estimate = min over the rows; never undercounts,
+ *   overcounts by about totalCount / width with high probability).
+ * - The window is a ring of {@code windows} sketches, each covering {@code windowDuration}; the oldest one is
+ *   cleared and reused when time moves on, so a key's count fades out a few minutes after it stops.
+ * - Keys whose sliding-window count beats the weakest tracked key become candidates; at most
+ *   {@code trackedKeys} are kept. Only new candidates ever touch the lock, the common path is a few atomic
+ *   increments and a concurrent set lookup.
+ *
+ * topUsers(k) re-estimates the candidates over the live sub-windows and sorts them: a few thousand array
+ * reads, i.e. microseconds, independent of how many distinct keys were seen.
+ */
+public class HeavyHitters {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    public static class HeavyHitter {
+        private final String key;
+        private final long estimate;
+
+        HeavyHitter(String key, long estimate) {
+            this.key = key;
+            this.estimate = estimate;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Estimated count over the sliding window; an upper bound of the true count.
+         */
+        public long getEstimate() {
+            return estimate;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + estimate;
+        }
+    }
+
+    private static final class Window {
+        final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+        // Long.MIN_VALUE: never used (any epoch, even negative, is out of the live range from it)
+        volatile long epoch = Long.MIN_VALUE;
+    }
+
+    private final Window[] ring;
+    private final long windowNanos;
+    private final int trackedKeys;
+
+    // Modified under this; concurrent so record() can skip keys that are already candidates without the lock
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    // Once the set is full, a newcomer's sliding-window estimate must beat the weakest candidate's. Its current
+    // sub-window count is checked first against that estimate spread over the sub-windows, a cheap filter that,
+    // unlike counts of the current sub-window alone, doesn't drop to zero whenever a sub-window rolls over
+    private volatile long admissionEstimate;
+    private volatile long admissionThreshold;
+
+    public HeavyHitters(Duration windowDuration, int windows, int trackedKeys) {
+        if (windows <= 0 || trackedKeys <= 0 || windowDuration.isZero() || windowDuration.isNegative()) {
+            throw new IllegalArgumentException("windowDuration, windows and trackedKeys must be positive");
+        }
+        this.ring = new Window[windows];
+        for (int i = 0; i < windows; i++) {
+            ring[i] = new Window();
+        }
+        this.windowNanos = windowDuration.toNanos();
+        this.trackedKeys = trackedKeys;
+    }
+
+    public void record(String key) {
+        long epoch = epoch();
+        Window window = current(epoch);
+        int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, window.counters.incrementAndGet(row * WIDTH + column(hash, row)));
+        }
+        if (estimate > admissionThreshold && !candidates.contains(key) && estimate(key, epoch) > admissionEstimate) {
+            admit(key, epoch);
+        }
+    }
+
+    // nanoTime has an arbitrary origin and may be negative, so floor rather than truncate
+    private long epoch() {
+        return Math.floorDiv(System.nanoTime(), windowNanos);
+    }
+
+    private Window windowOf(long epoch) {
+        return ring[Math.floorMod(epoch, ring.length)];
+    }
+
+    private Window current(long epoch) {
+        Window window = windowOf(epoch);
+        if (window.epoch != epoch) {
+            synchronized (window) {
+                if (window.epoch != epoch) {
+                    // Reuse the oldest sub-window; concurrent increments during the clear are lost, which only undercounts a little
+                    for (int i = 0; i < window.counters.length(); i++) {
+                        window.counters.set(i, 0);
+                    }
+                    window.epoch = epoch;
+                }
+            }
+        }
+        return window;
+    }
+
+    private synchronized void admit(String key, long epoch) {
+        if (!candidates.add(key) || candidates.size() <= trackedKeys) {
+            return;
+        }
+        // Over capacity: drop the key with the smallest sliding-window estimate
+        String weakest = null;
+        long weakestEstimate = Long.MAX_VALUE;
+        long runnerUpEstimate = Long.MAX_VALUE;
+        for (String candidate : candidates) {
+            long estimate = estimate(candidate, epoch);
+            if (estimate < weakestEstimate) {
+                runnerUpEstimate = weakestEstimate;
+                weakest = candidate;
+                weakestEstimate = estimate;
+            } else if (estimate < runnerUpEstimate) {
+                runnerUpEstimate = estimate;
+            }
+        }
+        candidates.remove(weakest);
+        admissionEstimate = runnerUpEstimate;
+        admissionThreshold = runnerUpEstimate / ring.length;
+    }
+
+    private long estimate(String key, long epoch) {
+        int hash = key.hashCode();
+        long total = 0;
+        for (Window window : ring) {
+            long age = epoch - window.epoch;
+            if (age >= 0 && age < ring.length) {
+                total += estimate(window, hash);
+            }
+        }
+        return total;
+    }
+
+    private static long estimate(Window window, int hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, window.counters.get(row * WIDTH + column(hash, row)));
+        }
+        return estimate;
+    }
+
+    private static int column(int hash, int row) {
+        int h = hash ^ SEEDS[row];
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & (WIDTH - 1);
+    }
+
+    /**
+     * Estimated count of the key over the sliding window.
+     */
+    public long estimate(String key) {
+        return estimate(key, epoch());
+    }
+
+    /**
+     * The k keys with the highest estimated counts over the sliding window, highest first.
+     */
+    public synchronized List<HeavyHitter> topUsers(int k) {
+        long epoch = epoch();
+        List<HeavyHitter> result = new ArrayList<>(candidates.size());
+        candidates.removeIf(key -> {
+            long estimate = estimate(key, epoch);
+            if (estimate == 0) {
+                // Silent for the whole window
+                return true;
+            }
+            result.add(new HeavyHitter(key, estimate));
+            return false;
+        });
+        if (candidates.size() < trackedKeys) {
+            // Room again: admit newcomers without making them beat the departed keys' counts
+            admissionEstimate = 0;
+            admissionThreshold = 0;
+        }
+        result.sort(Comparator.comparingLong(HeavyHitter::getEstimate).reversed());
+        return result.subList(0, Math.min(k, result.size()));
+    }
+
+    // Demo: 10M requests from 1M users (Zipf), sketch top-10 vs exact counts, and the cost of record/topUsers
+    public static void main(String[] args) {
+        int users = 1_000_000;
+        int requests = 10_000_000;
+        double[] cdf = new double[users];
+        double sum = 0;
+        for (int i = 0; i < users; i++) {
+            sum += 1 / Math.pow(i + 1, 1.05);
+            cdf[i] = sum;
+        }
+        String[] stream = new String[requests];
+        for (int i = 0; i < requests; i++) {
+            int rank = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble() * sum);
+            stream[i] = "user-" + (rank < 0 ? -rank - 1 : rank);
+        }
+
+        HeavyHitters heavyHitters = new HeavyHitters(Duration.ofMinutes(1), 5, 256);
+        long start = System.nanoTime();
+        for (String user : stream) {
+            heavyHitters.record(user);
+        }
+        System.out.printf("record: %.1f ns/op%n", (System.nanoTime() - start) / (double) requests);
+
+        Map<String, Long> exact = new HashMap<>();
+        for (String user : stream) {
+            exact.merge(user, 1L, Long::sum);
+        }
+        List<Map.Entry<String, Long>> exactTop = new ArrayList<>(exact.entrySet());
+        exactTop.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        List<HeavyHitter> top = null;
+        for (int i = 0; i < 1_000; i++) {
+            top = heavyHitters.topUsers(10);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            top = heavyHitters.topUsers(10);
+        }
+        System.out.printf("topUsers(10): %.1f us/op%n", (System.nanoTime() - start) / 1_000 / 1e3);
+        System.out.println("sketch: " + top);
+        System.out.println("exact:  " + exactTop.subList(0, 10));
+    }
+}
@@ -0,0 +1,224 @@
+package com.java17.programs.redifined.all;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, TTL-based idempotency store: remembers the result future of each key (e.g. a payment txnId)
+ * so a retried request is answered with the original in-flight or completed result instead of being processed again.
+ *
+ * - Lookup is one ConcurrentHashMap.get plus a nanoTime comparison; duplicates allocate nothing.
+ * - Every entry lives for the same ttl, so insertion order is also expiry order: a FIFO queue of entries lets
+ *   expired (and, past maxEntries, oldest) keys be evicted from the head in O(1) without scanning the map.
+ * - Eviction piggybacks on register(); at most one thread sweeps at a time.
+ * - An entry whose result is still pending is never evicted, whatever its age: whoever processes the key has to
+ *   find it to complete it, and a retry must keep joining it. A pending head is moved to the tail instead, so it
+ *   doesn't hold back the completed entries behind it. The store is bounded by refusing new keys once maxEntries
+ *   results are pending.
+ */
+public class IdempotencyStore<V> {
+
+    private static final class Entry<V> {
+        final String key;
+        final CompletableFuture<V> result;
+        final long expiresAtNanos;
+
+        Entry(String key, CompletableFuture<V> result, long expiresAtNanos) {
+            this.key = key;
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isLive(long now) {
+            return expiresAtNanos - now > 0 || !result.isDone();
+        }
+    }
+
+    // Pending heads a sweep moves to the tail before giving up, so a backlog of in-flight keys can't make one
+    // register() call walk the whole queue
+    private static final int MAX_ROTATIONS_PER_SWEEP = 64;
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry<V>> insertionOrder = new ConcurrentLinkedQueue<>();
+    // Length of insertionOrder (ConcurrentLinkedQueue.size() is O(n)); always >= entries.size()
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    // Registered results not completed yet
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final LongAdder duplicateHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public IdempotencyStore(Duration ttl, int maxEntries) {
+        if (ttl.isZero() || ttl.isNegative() || maxEntries <= 0) {
+            throw new IllegalArgumentException("ttl and maxEntries must be positive");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Registers {@code result} for the key if there is no live entry for it yet and returns null;
+     * otherwise returns the result already registered for the key (a duplicate).
+     *
+     * @throws RejectedExecutionException if the key is new and maxEntries results are already pending
+     */
+    public CompletableFuture<V> register(String key, CompletableFuture<V> result) {
+        long now = System.nanoTime();
+        Entry<V> entry = null;
+        while (true) {
+            Entry<V> existing = entries.get(key);
+            if (existing == null) {
+                if (entry == null) {
+                    if (pending.get() >= maxEntries) {
+                        throw new RejectedExecutionException("Idempotency store is full: " + maxEntries + " results pending");
+                    }
+                    entry = new Entry<>(key, result, now + ttlNanos);
+                }
+                existing = entries.putIfAbsent(key, entry);
+                if (existing == null) {
+                    pending.incrementAndGet();
+                    result.whenComplete((value, error) -> pending.decrementAndGet());
+                    insertionOrder.add(entry);
+                    queued.incrementAndGet();
+                    evict(now);
+                    return null;
+                }
+            }
+            if (existing.isLive(now)) {
+                duplicateHits.increment();
+                return existing.result;
+            }
+            // Expired and done but not swept yet: treat as absent
+            entries.remove(key, existing);
+        }
+    }
+
+    /**
+     * The live result registered for the key, or null.
+     */
+    public CompletableFuture<V> get(String key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null || !entry.isLive(System.nanoTime()) ? null : entry.result;
+    }
+
+    /**
+     * Forgets the key if it still maps to {@code result}, so the next request with it is processed again
+     * (used when processing failed and a retry should be allowed).
+     */
+    public void remove(String key, CompletableFuture<V> result) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.result == result) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private void evict(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int rotations = 0;
+            Entry<V> head;
+            while ((head = insertionOrder.peek()) != null
+                    && (queued.get() > maxEntries || head.expiresAtNanos - now <= 0)) {
+                insertionOrder.poll();
+                if (!head.result.isDone() && entries.get(head.key) == head) {
+                    insertionOrder.add(head);
+                    if (++rotations == MAX_ROTATIONS_PER_SWEEP) {
+                        break;
+                    }
+                    continue;
+                }
+                queued.decrementAndGet();
+                if (entries.remove(head.key, head)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getDuplicateHits() {
+        return duplicateHits.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    // Demo: bounded memory under 2M distinct keys, the cost of a duplicate lookup, and in-flight keys surviving eviction
+    public static void main(String[] args) {
+        IdempotencyStore<String> store = new IdempotencyStore<>(Duration.ofMinutes(10), 100_000);
+        CompletableFuture<String> processed = CompletableFuture.completedFuture("charged");
+        for (int i = 0; i < 2_000_000; i++) {
+            store.register("txn-" + i, processed);
+        }
+        System.out.println("Entries after 2M distinct txnIds: " + store.size() + ", evicted: " + store.getEvictions());
+
+        String[] keys = new String[1024];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "txn-" + (1_999_000 + i % 1000);
+        }
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            // First round warms up the JIT
+            int lookups = 20_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                sink += store.register(keys[i & 1023], probe).hashCode() & 1;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Duplicate lookup: %.1f ns/op%n", (double) elapsed / lookups);
+        }
+        System.out.println("Duplicate hits: " + store.getDuplicateHits() + " (" + sink % 2 + ")");
+
+        IdempotencyStore<String> shortLived = new IdempotencyStore<>(Duration.ofMillis(50), 1_000);
+        shortLived.register("txn-a", CompletableFuture.completedFuture("charge-1"));
+        System.out.println("Retry within ttl -> " + shortLived.register("txn-a", new CompletableFuture<>()).join());
+        sleep(100);
+        System.out.println("Retry after ttl is new: " + (shortLived.register("txn-a", new CompletableFuture<>()) == null));
+
+        // txn-a is pending now: it outlives both its ttl and 10k completed keys, so its consumer can still complete it
+        for (int i = 0; i < 10_000; i++) {
+            shortLived.register("txn-done-" + i, CompletableFuture.completedFuture("charged"));
+        }
+        sleep(100);
+        System.out.println("Pending entry after ttl and capacity pressure: " + (shortLived.get("txn-a") != null)
+                + ", entries: " + shortLived.size());
+        for (int i = 0; i < 999; i++) {
+            shortLived.register("txn-pending-" + i, new CompletableFuture<>());
+        }
+        try {
+            shortLived.register("txn-overflow", new CompletableFuture<>());
+        } catch (RejectedExecutionException e) {
+            System.out.println("Registration with 1000 pending: " + e.getMessage());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.java17.programs.redifined.all;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Runs tasks serially per key (one "mailbox" per user) on a shared executor, without blocking pool threads.
+ *
+ * - A task for key K starts only after the previous task for K has finished.
+ * - Different keys run in parallel.
+ * - At most one pool thread works on a given key at a time, so a hot user can't park the whole pool.
+ * - A mailbox exists only while it has pending tasks; it is removed from the map as soon as it drains.
+ *
+ * The pending count is changed only inside ConcurrentHashMap.compute, which makes "mailbox created"
+ * (→ schedule a drain) and "last task finished" (→ remove the mailbox) atomic with respect to each other.
+ */
+public class KeyedSerialExecutor {
+
+    // Tasks run back-to-back for one key before the drain goes to the back of the executor queue
+    private static final int FAIRNESS_BATCH = 128;
+
+    private static final class Task<T> {
+        final Supplier<T> supplier;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        void run() {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static final class Mailbox {
+        final String key;
+        final ConcurrentLinkedQueue<Task<?>> tasks = new ConcurrentLinkedQueue<>();
+        // Guarded by ConcurrentHashMap.compute on this key
+        int pending;
+
+        Mailbox(String key) {
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Executor executor;
+
+    public KeyedSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        Task<T> job = new Task<>(task);
+        boolean[] created = new boolean[1];
+        Mailbox mailbox = mailboxes.compute(key, (k, mb) -> {
+            if (mb == null) {
+                mb = new Mailbox(k);
+                created[0] = true;
+            }
+            mb.tasks.add(job);
+            mb.pending++;
+            return mb;
+        });
+
+        if (created[0]) {
+            schedule(mailbox);
+        }
+        return job.future;
+    }
+
+    private void schedule(Mailbox mailbox) {
+        try {
+            executor.execute(() -> drain(mailbox));
+        } catch (RuntimeException e) {
+            // Executor rejected the drain (e.g. shutting down): fail what is queued so nobody waits forever
+            mailboxes.remove(mailbox.key, mailbox);
+            Task<?> task;
+            while ((task = mailbox.tasks.poll()) != null) {
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void drain(Mailbox mailbox) {
+        for (int i = 0; i < FAIRNESS_BATCH; i++) {
+            mailbox.tasks.poll().run();
+            Mailbox remaining = mailboxes.computeIfPresent(mailbox.key, (k, mb) -> --mb.pending == 0 ? null : mb);
+            if (remaining == null) {
+                return;
+            }
+            // pending > 0 guarantees the next task has already been queued
+        }
+        schedule(mailbox);
+    }
+
+    /**
+     * Keys that currently have queued or running tasks.
+     */
+    public int activeKeys() {
+        return mailboxes.size();
+    }
+
+    // Benchmark: Zipfian user distribution, old "pool thread blocks on user lock" vs mailboxes
+    public static void main(String[] args) throws InterruptedException {
+        int users = 1_000;
+        int tasks = 20_000;
+        double[] cdf = zipfCdf(users, 1.1);
+        int[] ranks = new int[tasks];
+        for (int i = 0; i < tasks; i++) {
+            int rank = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble());
+            ranks[i] = rank < 0 ? -rank - 1 : rank;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+        ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+        long[] latencies = new long[tasks];
+        long start = System.nanoTime();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks];
+        for (int i = 0; i < tasks; i++) {
+            String key = "user-" + ranks[i];
+            int index = i;
+            long submitted = System.nanoTime();
+            futures[i] = CompletableFuture.runAsync(() -> {
+                ReentrantLock lock = locks.computeIfAbsent(key, k -> new ReentrantLock());
+                lock.lock();
+                try {
+                    simulateIo();
+                } finally {
+                    lock.unlock();
+                }
+                latencies[index] = System.nanoTime() - submitted;
+            }, pool);
+        }
+        CompletableFuture.allOf(futures).join();
+        report("Executor + user lock", start, ranks, latencies);
+
+        KeyedSerialExecutor serial = new KeyedSerialExecutor(pool);
+        start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            long submitted = System.nanoTime();
+            futures[i] = serial.submit("user-" + ranks[i], () -> {
+                simulateIo();
+                latencies[index] = System.nanoTime() - submitted;
+                return null;
+            });
+        }
+        CompletableFuture.allOf(futures).join();
+        report("Per-user mailboxes", start, ranks, latencies);
+        Thread.sleep(50);
+        System.out.println("Live mailboxes after drain: " + serial.activeKeys());
+        pool.shutdown();
+    }
+
+    private static void report(String name, long start, int[] ranks, long[] latencies) {
+        // "Cold" users are everyone outside the 10 hottest keys
+        long[] cold = IntStream.range(0, ranks.length)
+                .filter(i -> ranks[i] >= 10).mapToLong(i -> latencies[i]).sorted().toArray();
+        System.out.printf("%-22s total %5d ms, cold-user p50 %5d ms, p99 %5d ms%n", name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMillis(cold[cold.length / 2]),
+                TimeUnit.NANOSECONDS.toMillis(cold[(int) (cold.length * 0.99)]));
+    }
+
+    private static void simulateIo() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
@@ -0,0 +1,120 @@
+package com.java17.programs.redifined.all;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two nanosecond buckets.
+ *
+ * Bucket i holds samples in [2^i, 2^(i+1)) ns (bucket 0 also holds 0), so 64 LongAdders cover every
+ * possible long and percentiles are accurate to within a factor of two - plenty to spot a 1ms vs 100ms problem.
+ * LongAdder stripes updates per CPU, so many threads can record without contending on one counter.
+ * A sample costs one bucket increment plus one add to the running total (none for a zero sample); the count is
+ * summed from the buckets on read, since reads are rare and records are on hot paths.
+ *
+ * For very hot paths the histogram can be fed a uniform sample: callers ask {@link #sample()} before timing
+ * anything, percentiles and the mean are unaffected, and count/total are scaled back up by the sample rate.
+ */
+public class LatencyHistogram {
+
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder totalNanos = new LongAdder();
+    private final int sampleMask;
+
+    public LatencyHistogram() {
+        this(1);
+    }
+
+    /**
+     * @param sampleRate record one in this many events (a power of two); 1 records everything
+     */
+    public LatencyHistogram(int sampleRate) {
+        if (sampleRate <= 0 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("sampleRate must be a power of two: " + sampleRate);
+        }
+        this.sampleMask = sampleRate - 1;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Whether the current event should be timed and recorded; always true without sampling.
+     */
+    public boolean sample() {
+        return sampleMask == 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[63 - Long.numberOfLeadingZeros(value | 1)].increment();
+        if (value != 0) {
+            totalNanos.add(value);
+        }
+    }
+
+    /**
+     * Number of events, estimated from the sample when sampling.
+     */
+    public long getCount() {
+        return sampleCount() * (sampleMask + 1);
+    }
+
+    // Events actually recorded, not scaled by the sample rate
+    private long sampleCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum() * (sampleMask + 1);
+    }
+
+    public double getMeanMillis() {
+        // Total and count of the same sample: scaling either by the sample rate would skew the mean
+        long n = sampleCount();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile (0-100), in milliseconds.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            snapshot[i] = buckets[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (i == 63 ? Long.MAX_VALUE : (1L << (i + 1))) / 1e6;
+            }
+        }
+        return Long.MAX_VALUE / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.3fms, p50<=%.3fms, p99<=%.3fms, max<=%.3fms",
+                getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getPercentileMillis(100));
+    }
+
+    public static void main(String[] args) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i * 10L));
+        }
+        System.out.println(histogram); // true p50 5ms, p99 9.9ms, reported as their bucket upper bounds
+    }
+}
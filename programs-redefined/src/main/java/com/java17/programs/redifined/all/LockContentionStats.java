@@ -0,0 +1,163 @@
+package com.java17.programs.redifined.all;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention telemetry for the per-user locks.
+ *
+ * - waitTime / holdTime: histograms over a uniform sample of lock acquisitions (1 in sampleRate; callers
+ *   check {@code getHoldTime().sample()} before timing a hold).
+ * - Hot accounts: users whose lock was already taken when they asked for it are fed into a Space-Saving
+ *   summary of fixed size, ranked by total time spent waiting. Memory stays at {@code trackedKeys} entries
+ *   no matter how many users there are, and the true heaviest keys are guaranteed to be in it
+ *   (their totals may be overestimated by at most the {@code error} shown for them).
+ *
+ * Uncontended acquisitions only touch the histograms, which are lock-free, and only when sampled.
+ * Timed-out attempts are only counted: they never got the lock, so they stay out of the wait histogram and the
+ * hot-account summary (and off its monitor).
+ */
+public class LockContentionStats {
+
+    public static class HotKey {
+        private final String key;
+        private final long contendedAcquisitions;
+        private final long totalWaitNanos;
+        private final long errorNanos;
+
+        HotKey(String key, long contendedAcquisitions, long totalWaitNanos, long errorNanos) {
+            this.key = key;
+            this.contendedAcquisitions = contendedAcquisitions;
+            this.totalWaitNanos = totalWaitNanos;
+            this.errorNanos = errorNanos;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getContendedAcquisitions() {
+            return contendedAcquisitions;
+        }
+
+        public double getTotalWaitMillis() {
+            return totalWaitNanos / 1e6;
+        }
+
+        public double getErrorMillis() {
+            return errorNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: contended=%d, waited=%.1fms (error <= %.1fms)", key, contendedAcquisitions,
+                    getTotalWaitMillis(), getErrorMillis());
+        }
+    }
+
+    private static final class Counter {
+        long contended;
+        long waitNanos;
+        long errorNanos;
+    }
+
+    private final LatencyHistogram waitTime;
+    private final LatencyHistogram holdTime;
+    private final LongAdder timeouts = new LongAdder();
+    private final int trackedKeys;
+
+    // Guarded by this; only touched on the contended path
+    private final Map<String, Counter> hotKeys = new HashMap<>();
+
+    public LockContentionStats(int trackedKeys) {
+        this(trackedKeys, 1);
+    }
+
+    public LockContentionStats(int trackedKeys, int sampleRate) {
+        if (trackedKeys <= 0) {
+            throw new IllegalArgumentException("trackedKeys must be positive: " + trackedKeys);
+        }
+        this.trackedKeys = trackedKeys;
+        this.waitTime = new LatencyHistogram(sampleRate);
+        this.holdTime = new LatencyHistogram(sampleRate);
+    }
+
+    public void recordUncontended() {
+        if (waitTime.sample()) {
+            waitTime.record(0);
+        }
+    }
+
+    public void recordContended(String key, long waitNanos) {
+        if (waitTime.sample()) {
+            waitTime.record(waitNanos);
+        }
+        synchronized (this) {
+            Counter counter = hotKeys.get(key);
+            if (counter == null) {
+                counter = new Counter();
+                if (hotKeys.size() >= trackedKeys) {
+                    // Space-Saving: replace the lightest key and inherit its total as the error bound
+                    Map.Entry<String, Counter> lightest = null;
+                    for (Map.Entry<String, Counter> entry : hotKeys.entrySet()) {
+                        if (lightest == null || entry.getValue().waitNanos < lightest.getValue().waitNanos) {
+                            lightest = entry;
+                        }
+                    }
+                    hotKeys.remove(lightest.getKey());
+                    counter.waitNanos = lightest.getValue().waitNanos;
+                    counter.errorNanos = lightest.getValue().waitNanos;
+                }
+                hotKeys.put(key, counter);
+            }
+            counter.contended++;
+            counter.waitNanos += waitNanos;
+        }
+    }
+
+    public void recordHold(long holdNanos) {
+        holdTime.record(holdNanos);
+    }
+
+    public void recordTimeout() {
+        timeouts.increment();
+    }
+
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram getHoldTime() {
+        return holdTime;
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * The n most contended user keys, by total time spent waiting for their lock.
+     */
+    public synchronized List<HotKey> topContended(int n) {
+        List<HotKey> result = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, c) -> result.add(new HotKey(key, c.contended, c.waitNanos, c.errorNanos)));
+        result.sort(Comparator.comparingLong((HotKey h) -> h.totalWaitNanos).reversed());
+        return result.subList(0, Math.min(n, result.size()));
+    }
+
+    public static void main(String[] args) {
+        LockContentionStats stats = new LockContentionStats(16);
+        for (int i = 0; i < 10_000; i++) {
+            // A couple of hot wallets among a long tail of occasionally contended ones
+            String key = i % 3 == 0 ? "wallet-hot-1" : i % 7 == 0 ? "wallet-hot-2" : "wallet-" + i;
+            stats.recordContended(key, TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        stats.topContended(3).forEach(System.out::println);
+        System.out.println("wait: " + stats.getWaitTime());
+    }
+}
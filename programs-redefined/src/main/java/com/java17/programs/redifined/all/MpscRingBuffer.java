@@ -0,0 +1,343 @@
+package com.java17.programs.redifined.all;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Bounded, lock-free ring buffer for many producers and ONE consumer.
+ *
+ * - Capacity is rounded up to a power of two, slots are preallocated, nothing is allocated per element.
+ * - Every slot carries a sequence number (Vyukov bounded queue):
+ *     slot free for position p     → sequence == p
+ *     slot published for position p → sequence == p + 1
+ *   Producers claim a position with one CAS on the tail cursor, write the element, then publish the sequence.
+ *   The single consumer owns the head cursor and never needs a CAS.
+ * - Head and tail cursors are padded onto their own cache lines so producers and the consumer don't false-share.
+ *   Slot sequences are spread one per cache line too, so producers publishing neighbouring positions don't
+ *   bounce one line between them.
+ * - When full (producers) or empty (consumer) callers back off with the configured WaitStrategy.
+ *
+ * Implements BlockingQueue so it can replace a LinkedBlockingQueue as-is, as long as only one thread
+ * calls the consuming methods (poll/take/drainTo). Removing an arbitrary element is not supported.
+ */
+public class MpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    public enum WaitStrategy {
+        // Busy-spin: lowest latency, burns a core while waiting
+        SPIN,
+        // Give the core away between checks
+        YIELD,
+        // Sleep with exponential backoff up to 1ms: cheapest on CPU, highest wake-up latency
+        PARK;
+
+        void idle(int attempt) {
+            switch (this) {
+                case SPIN -> Thread.onSpinWait();
+                case YIELD -> Thread.yield();
+                case PARK -> LockSupport.parkNanos(Math.min(1_000_000L, 1_000L << Math.min(attempt, 10)));
+            }
+        }
+    }
+
+    // Cache-line padding around the two cursors
+    @SuppressWarnings("unused")
+    abstract static class HeadPad {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class Head extends HeadPad {
+        volatile long head;
+    }
+
+    @SuppressWarnings("unused")
+    abstract static class TailPad extends Head {
+        long p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    abstract static class Tail extends TailPad {
+        volatile long tail;
+    }
+
+    @SuppressWarnings("unused")
+    abstract static class Cursors extends Tail {
+        long p21, p22, p23, p24, p25, p26, p27;
+    }
+
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(Tail.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Sequences extends Cursors {
+    }
+
+    // 8 longs = one 64-byte cache line per slot sequence
+    private static final int SEQUENCE_SHIFT = 3;
+    // Largest power of two whose strided sequence array still fits an int index
+    private static final int MAX_CAPACITY = 1 << (30 - SEQUENCE_SHIFT);
+
+    private final Sequences cursors = new Sequences();
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int capacity;
+    private final WaitStrategy waitStrategy;
+
+    public MpscRingBuffer(int requestedCapacity, WaitStrategy waitStrategy) {
+        if (requestedCapacity < 2 || requestedCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 2 and " + MAX_CAPACITY + ": " + requestedCapacity);
+        }
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity << SEQUENCE_SHIFT);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i << SEQUENCE_SHIFT, i);
+        }
+    }
+
+    private long sequence(int index) {
+        return sequences.get(index << SEQUENCE_SHIFT);
+    }
+
+    private void publish(int index, long sequence) {
+        sequences.set(index << SEQUENCE_SHIFT, sequence);
+    }
+
+    // ==== Producer side (any thread) ====
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long position = cursors.tail;
+            int index = (int) position & mask;
+            long difference = sequence(index) - position;
+            if (difference == 0) {
+                if (TAIL.compareAndSet(cursors, position, position + 1)) {
+                    slots.lazySet(index, e);
+                    publish(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // Slot still holds the element from one lap ago: full
+                return false;
+            }
+            // difference > 0: another producer claimed this position, reread tail
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        int attempt = 0;
+        while (!offer(e)) {
+            checkInterrupt();
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (!offer(e)) {
+            checkInterrupt();
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return true;
+    }
+
+    // ==== Consumer side (single thread) ====
+
+    @Override
+    public E poll() {
+        long position = cursors.head;
+        int index = (int) position & mask;
+        if (sequence(index) != position + 1) {
+            return null;
+        }
+        E e = slots.get(index);
+        slots.lazySet(index, null);
+        // Hand the slot back to producers for the next lap
+        publish(index, position + capacity);
+        cursors.head = position + 1;
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            checkInterrupt();
+            waitStrategy.idle(attempt++);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            checkInterrupt();
+            if (deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        long position = cursors.head;
+        int index = (int) position & mask;
+        return sequence(index) == position + 1 ? slots.get(index) : null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    // ==== Introspection ====
+
+    @Override
+    public int size() {
+        long size = cursors.tail - cursors.head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Weakly consistent snapshot of the published elements; meant for logging and debugging only.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long tail = cursors.tail;
+        for (long position = cursors.head; position < tail; position++) {
+            int index = (int) position & mask;
+            E e = slots.get(index);
+            if (sequence(index) == position + 1 && e != null) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /**
+     * Not supported: taking an element out of the middle would leave a hole the producers' sequence protocol
+     * can't express. Only the consumer removes, from the head, via poll/take/drainTo.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("MpscRingBuffer only removes from the head");
+    }
+
+    /**
+     * Not supported, see {@link #remove(Object)}.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        throw new UnsupportedOperationException("MpscRingBuffer only removes from the head");
+    }
+
+    private static void checkInterrupt() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    // Throughput comparison: 4 producers, 1 consumer, LinkedBlockingQueue vs the ring buffer per wait strategy
+    public static void main(String[] args) throws InterruptedException {
+        int messages = 2_000_000;
+        int producers = 4;
+        for (int round = 0; round < 2; round++) {
+            System.out.println("Round " + (round + 1) + (round == 0 ? " (warm-up)" : ""));
+            run("LinkedBlockingQueue", new LinkedBlockingQueue<>(1024), messages, producers);
+            for (WaitStrategy strategy : WaitStrategy.values()) {
+                run("MpscRingBuffer/" + strategy, new MpscRingBuffer<>(1024, strategy), messages, producers);
+            }
+        }
+    }
+
+    private static void run(String name, BlockingQueue<Integer> queue, int messages, int producers) throws InterruptedException {
+        int perProducer = messages / producers;
+        CountDownLatch start = new CountDownLatch(1);
+        Integer item = 42;
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, name + "-producer-" + p).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (int i = 0; i < perProducer * producers; i++) {
+            queue.take();
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf("  %-28s %,12d ops/s%n", name, (long) (perProducer * producers / (elapsed / 1e9)));
+    }
+}
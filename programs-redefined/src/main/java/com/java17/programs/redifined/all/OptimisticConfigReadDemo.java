@@ -0,0 +1,90 @@
+package com.java17.programs.redifined.all;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Read scaling of config reads, 1 to 64 threads:
+ *   ReentrantReadWriteLock read lock (every reader CASes the same shared counter) vs
+ *   ConcurrentUtil.withReadLockAndReturn (StampedLock optimistic read, readers only load the stamp).
+ *
+ * A writer updates the config every 10ms to keep the validate/fallback path honest.
+ * Numbers are only meaningful on a multi-core machine; each point runs for one second after a warm-up.
+ */
+public class OptimisticConfigReadDemo {
+
+    private static volatile long feeBasisPoints = 25;
+    private static volatile long maxAmount = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        ConcurrentUtil util = new ConcurrentUtil();
+
+        Supplier<Long> read = () -> feeBasisPoints * maxAmount;
+        ReadStrategy readWriteLock = () -> {
+            rwLock.readLock().lock();
+            try {
+                return read.get();
+            } finally {
+                rwLock.readLock().unlock();
+            }
+        };
+        ReadStrategy optimistic = () -> util.withReadLockAndReturn(read);
+
+        Thread writer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                rwLock.writeLock().lock();
+                try {
+                    feeBasisPoints++;
+                } finally {
+                    rwLock.writeLock().unlock();
+                }
+                util.withWriteLock(() -> maxAmount++);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "Config-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        measure("warm-up", readWriteLock, 4);
+        measure("warm-up", optimistic, 4);
+        System.out.printf("%-8s %22s %22s%n", "threads", "ReentrantReadWriteLock", "StampedLock optimistic");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            System.out.printf("%-8d %,18d/s %,18d/s%n", threads,
+                    measure("rw", readWriteLock, threads), measure("optimistic", optimistic, threads));
+        }
+        writer.interrupt();
+        util.shutdown();
+    }
+
+    private interface ReadStrategy {
+        long read();
+    }
+
+    private static long measure(String name, ReadStrategy strategy, int threads) throws InterruptedException {
+        LongAdder reads = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                long local = 0;
+                long sink = 0;
+                while (end - System.nanoTime() > 0) {
+                    sink += strategy.read();
+                    local++;
+                }
+                reads.add(local + (sink == 42 ? 1 : 0));
+                done.countDown();
+            }, name + "-reader-" + t).start();
+        }
+        done.await();
+        return reads.sum();
+    }
+}
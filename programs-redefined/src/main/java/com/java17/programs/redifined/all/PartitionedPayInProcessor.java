@@ -0,0 +1,427 @@
+package com.java17.programs.redifined.all;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Kafka-partition style payment processing: requests are hashed by user into N shards, and each shard has
+ * exactly one consumer thread. Payments of one user always land in the same shard and are handled in
+ * submission order; different users are handled in parallel, and no locking is needed in the handler.
+ *
+ * rebalance(n) changes the shard count without breaking per-user order: new submissions wait, every old shard
+ * finishes what it already has, then the new shards start. Like a Kafka consumer-group rebalance this pauses
+ * intake for as long as the slowest shard needs to drain.
+ *
+ * With a source queue, start() also runs a dispatcher thread that moves requests from it into the shards, so
+ * the processor can sit behind the existing payment buffer. Order is then the order the source hands them out.
+ *
+ * If a shard's consumer dies (an Error out of the handler), submissions to that shard fail with an
+ * IllegalStateException instead of blocking forever; rebalance() starts fresh shards and moves the dead shard's
+ * queued requests into them.
+ *
+ * Requests that were accepted but will never be handled (the dispatcher couldn't place one, or stop() gave up on a
+ * partition that still had some queued) are passed to the drop callback given to start(), so their submitters can
+ * be told.
+ */
+public class PartitionedPayInProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedPayInProcessor.class);
+
+    // Tells a shard consumer that its queue is drained for a rebalance
+    private static final PayInRequest END_OF_SHARD = new PayInRequest();
+    // How often a submitter waiting on a full shard checks whether its consumer is still alive
+    private static final long SUBMIT_RECHECK_MILLIS = 100;
+
+    private static final class Shard {
+        final int index;
+        final BlockingQueue<PayInRequest> queue;
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong processed = new AtomicLong();
+        Thread consumer;
+        // Set when the consumer thread ended abnormally: nothing will take from the queue anymore
+        volatile boolean dead;
+
+        Shard(int index, int capacity) {
+            this.index = index;
+            this.queue = new LinkedBlockingQueue<>(capacity);
+        }
+    }
+
+    private final BlockingQueue<PayInRequest> source;
+    private final int shardCapacity;
+    private final LongAdder failures = new LongAdder();
+
+    // Read lock: submitting into the current shards. Write lock: replacing them.
+    private final ReentrantReadWriteLock shardsLock = new ReentrantReadWriteLock();
+    // Guarded by shardsLock
+    private List<Shard> shards = List.of();
+    private int partitions;
+    private Consumer<PayInRequest> handler;
+    // Written under shardsLock; volatile so stop() can interrupt it without waiting for the lock
+    private volatile Thread dispatcher;
+    // Set by stop() once its timeout is up: the dispatcher drops the request in hand instead of waiting on a shard
+    private volatile boolean dispatchAbandoned;
+    private volatile Consumer<PayInRequest> dropped = request -> { };
+
+    /**
+     * @param source queue to dispatch from once started, or null to only accept {@link #submit(PayInRequest)}
+     */
+    public PartitionedPayInProcessor(BlockingQueue<PayInRequest> source, int partitions, int shardCapacity) {
+        if (partitions <= 0 || shardCapacity <= 0) {
+            throw new IllegalArgumentException("partitions and shardCapacity must be positive");
+        }
+        this.source = source;
+        this.partitions = partitions;
+        this.shardCapacity = shardCapacity;
+    }
+
+    public void start(Consumer<PayInRequest> handler) {
+        start(handler, request -> { });
+    }
+
+    /**
+     * @param dropped called with each request that was taken or submitted but will never reach the handler
+     */
+    public void start(Consumer<PayInRequest> handler, Consumer<PayInRequest> dropped) {
+        shardsLock.writeLock().lock();
+        try {
+            if (this.handler != null) {
+                throw new IllegalStateException("Partitioned processor already running");
+            }
+            this.handler = handler;
+            this.dropped = dropped;
+            shards = createShards(partitions);
+            if (source != null) {
+                dispatchAbandoned = false;
+                dispatcher = new Thread(this::dispatch, "payin-dispatcher");
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+            }
+        } finally {
+            shardsLock.writeLock().unlock();
+        }
+        log.info("Started {} payment partitions", partitions);
+    }
+
+    private List<Shard> createShards(int count) {
+        List<Shard> created = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Shard shard = new Shard(i, shardCapacity);
+            shard.consumer = new Thread(() -> consume(shard), "payin-partition-" + i);
+            shard.consumer.setDaemon(true);
+            shard.consumer.start();
+            created.add(shard);
+        }
+        return List.copyOf(created);
+    }
+
+    private void consume(Shard shard) {
+        Consumer<PayInRequest> shardHandler = handler;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PayInRequest request;
+                try {
+                    request = shard.queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (request == END_OF_SHARD) {
+                    return;
+                }
+                try {
+                    shardHandler.accept(request);
+                } catch (RuntimeException e) {
+                    // One bad payment must not stop the partition
+                    failures.increment();
+                    log.error("Payment handler failed for {} in partition {}", request.getTxnId(), shard.index, e);
+                } finally {
+                    shard.processed.incrementAndGet();
+                }
+            }
+            log.info("Payment partition {} stopped", shard.index);
+        } catch (Throwable e) {
+            shard.dead = true;
+            log.error("Payment partition {} died with {} requests queued", shard.index, shard.queue.size(), e);
+            throw e;
+        }
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            PayInRequest request;
+            try {
+                request = source.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            // Once taken from the source the request still goes to a shard when stop() first interrupts; only once
+            // stop() gives up on the dispatcher is it dropped
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    submit(request);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (dispatchAbandoned) {
+                        log.warn("Payment dispatcher stopped before payment {} reached a partition, dropped", request.getTxnId());
+                        drop(request);
+                        break;
+                    }
+                } catch (RuntimeException e) {
+                    failures.increment();
+                    log.error("Could not dispatch payment {}", request.getTxnId(), e);
+                    drop(request);
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("Payment dispatcher stopped");
+    }
+
+    private void drop(PayInRequest request) {
+        try {
+            dropped.accept(request);
+        } catch (RuntimeException e) {
+            log.error("Drop callback failed for payment {}", request.getTxnId(), e);
+        }
+    }
+
+    /**
+     * Routes the request to its user's shard, waiting while that shard is full or a rebalance is in progress.
+     *
+     * @throws IllegalStateException if not started, or the consumer of the request's shard has died
+     */
+    public void submit(PayInRequest request) throws InterruptedException {
+        shardsLock.readLock().lockInterruptibly();
+        try {
+            if (shards.isEmpty()) {
+                throw new IllegalStateException("Partitioned processor not started");
+            }
+            Shard shard = shards.get(partitionOf(request, shards.size()));
+            while (shard.dead || !shard.queue.offer(request, SUBMIT_RECHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (shard.dead) {
+                    throw new IllegalStateException("Payment partition " + shard.index + " is down");
+                }
+            }
+            shard.submitted.incrementAndGet();
+        } finally {
+            shardsLock.readLock().unlock();
+        }
+    }
+
+    static int partitionOf(PayInRequest request, int partitions) {
+        String key = request.getUserId() != null ? request.getUserId() : request.getTxnId();
+        int h = key == null ? 0 : key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    /**
+     * Changes the number of partitions. Blocks submitters until every current shard has drained. Requests left
+     * in a shard whose consumer died are moved to the new shards, so this also revives a dead partition.
+     */
+    public void rebalance(int newPartitions) throws InterruptedException {
+        if (newPartitions <= 0) {
+            throw new IllegalArgumentException("partitions must be positive");
+        }
+        shardsLock.writeLock().lockInterruptibly();
+        try {
+            if (handler != null) {
+                for (Shard shard : shards) {
+                    if (!shard.dead) {
+                        shard.queue.put(END_OF_SHARD);
+                    }
+                }
+                List<PayInRequest> stranded = new ArrayList<>();
+                for (Shard shard : shards) {
+                    shard.consumer.join();
+                    if (shard.dead) {
+                        shard.queue.drainTo(stranded);
+                    }
+                }
+                shards = createShards(newPartitions);
+                // A dead shard held all of its users' pending payments, so they keep their order in the new shards
+                for (PayInRequest request : stranded) {
+                    Shard shard = shards.get(partitionOf(request, shards.size()));
+                    shard.queue.put(request);
+                    shard.submitted.incrementAndGet();
+                }
+                if (!stranded.isEmpty()) {
+                    log.warn("Moved {} payments out of dead partitions", stranded.size());
+                }
+            }
+            log.info("Rebalanced payments from {} to {} partitions", partitions, newPartitions);
+            partitions = newPartitions;
+        } finally {
+            shardsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the dispatcher, then lets every partition finish what is already queued, like a rebalance does.
+     * Partitions still busy after the timeout are interrupted, and the requests left in them (or in a dead
+     * partition) are passed to the drop callback.
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            Thread dispatching = dispatcher;
+            if (dispatching != null) {
+                // Ends its take(); a request it already took is still submitted before it exits
+                dispatching.interrupt();
+                dispatching.join(millisUntil(deadline));
+                if (dispatching.isAlive()) {
+                    // Stuck submitting into a full shard: make it drop the request and let go of the read lock
+                    dispatchAbandoned = true;
+                    dispatching.interrupt();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shardsLock.writeLock().lock();
+        try {
+            dispatcher = null;
+            List<Shard> draining = shards;
+            shards = List.of();
+            handler = null;
+            try {
+                for (Shard shard : draining) {
+                    if (!shard.dead) {
+                        shard.queue.offer(END_OF_SHARD, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    }
+                }
+                for (Shard shard : draining) {
+                    shard.consumer.join(millisUntil(deadline));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Shard shard : draining) {
+                if (shard.consumer.isAlive()) {
+                    shard.consumer.interrupt();
+                }
+                List<PayInRequest> left = new ArrayList<>();
+                shard.queue.drainTo(left);
+                left.remove(END_OF_SHARD);
+                if (!left.isEmpty()) {
+                    log.warn("Payment partition {} stopped with {} requests still queued, dropped", shard.index, left.size());
+                    left.forEach(this::drop);
+                }
+            }
+        } finally {
+            shardsLock.writeLock().unlock();
+        }
+    }
+
+    // Thread.join treats 0 as forever
+    private static long millisUntil(long deadline) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    public int getPartitions() {
+        shardsLock.readLock().lock();
+        try {
+            return partitions;
+        } finally {
+            shardsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Requests submitted to each shard but not yet fully handled (queued plus the one in progress), by shard index.
+     */
+    public long[] getShardLag() {
+        shardsLock.readLock().lock();
+        try {
+            long[] lag = new long[shards.size()];
+            for (Shard shard : shards) {
+                lag[shard.index] = shard.submitted.get() - shard.processed.get();
+            }
+            return lag;
+        } finally {
+            shardsLock.readLock().unlock();
+        }
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    // Demo: throughput per partition count with a 1ms (I/O-like) handler, plus a mid-run rebalance with an order check
+    public static void main(String[] args) throws InterruptedException {
+        int users = 1_000;
+        int requests = 8_000;
+        for (int partitions = 1; partitions <= 16; partitions *= 2) {
+            PartitionedPayInProcessor processor = new PartitionedPayInProcessor(null, partitions, 1_000);
+            LongAdder handled = new LongAdder();
+            processor.start(request -> {
+                sleep(1);
+                handled.increment();
+            });
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                processor.submit(new PayInRequest("txn-" + i, "user-" + i % users));
+            }
+            while (handled.sum() < requests) {
+                Thread.sleep(1);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%2d partitions: %,8.0f payments/s%n", partitions, requests * 1e9 / elapsed);
+            processor.stop(5, TimeUnit.SECONDS);
+        }
+
+        // Ordering: every user's payments carry an increasing sequence number, checked while rebalancing 4 → 8 → 3
+        PartitionedPayInProcessor processor = new PartitionedPayInProcessor(null, 4, 1_000);
+        Map<String, Integer> lastSeen = new ConcurrentHashMap<>();
+        LongAdder outOfOrder = new LongAdder();
+        LongAdder handled = new LongAdder();
+        processor.start(request -> {
+            int sequence = Integer.parseInt(request.getTxnId());
+            Integer previous = lastSeen.put(request.getUserId(), sequence);
+            if (previous != null && previous >= sequence) {
+                outOfOrder.increment();
+            }
+            handled.increment();
+        });
+        int total = 300_000;
+        for (int i = 0; i < total; i++) {
+            processor.submit(new PayInRequest(String.valueOf(i), "user-" + i % users));
+            if (i == 100_000) {
+                processor.rebalance(8);
+            } else if (i == 200_000) {
+                processor.rebalance(3);
+            }
+        }
+        System.out.println("Lag per shard right after submitting: " + Arrays.toString(processor.getShardLag()));
+        while (handled.sum() < total) {
+            Thread.sleep(5);
+        }
+        System.out.println("Handled " + handled.sum() + " across rebalances, out of order: " + outOfOrder.sum());
+        processor.stop(5, TimeUnit.SECONDS);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
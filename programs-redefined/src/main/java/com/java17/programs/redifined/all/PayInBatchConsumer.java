@@ -0,0 +1,175 @@
+package com.java17.programs.redifined.all;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Drains the payment buffer in batches instead of one request per take().
+ *
+ * A batch is closed when either
+ *   - maxBatchSize requests have been collected, or
+ *   - lingerMillis have passed since the first request of the batch arrived,
+ * whichever comes first. The first request is awaited without a timeout, so an idle queue costs nothing.
+ *
+ * Batch sizes are recorded in a small power-of-two histogram (1, 2-3, 4-7, ...) for metrics.
+ */
+public class PayInBatchConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(PayInBatchConsumer.class);
+
+    private final BlockingQueue<PayInRequest> source;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder[] sizeHistogram;
+
+    private volatile Thread worker;
+
+    public PayInBatchConsumer(BlockingQueue<PayInRequest> source, int maxBatchSize, long lingerMillis) {
+        if (maxBatchSize <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive and lingerMillis not negative");
+        }
+        this.source = source;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.sizeHistogram = new LongAdder[32 - Integer.numberOfLeadingZeros(maxBatchSize)];
+        for (int i = 0; i < sizeHistogram.length; i++) {
+            sizeHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Blocks until at least one request is available, then collects up to maxBatchSize or until the linger expires.
+     * An interrupt while lingering closes the batch early and leaves the interrupt flag set: the requests already
+     * taken off the queue are returned rather than lost.
+     */
+    public List<PayInRequest> nextBatch() throws InterruptedException {
+        List<PayInRequest> batch = new ArrayList<>(maxBatchSize);
+        batch.add(source.take());
+        long deadline = System.nanoTime() + lingerNanos;
+
+        while (batch.size() < maxBatchSize) {
+            // Grab whatever is already buffered in one lock handoff
+            if (source.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            PayInRequest next;
+            try {
+                next = source.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+
+        record(batch.size());
+        return batch;
+    }
+
+    /**
+     * Starts a dedicated consumer thread that feeds every batch to the handler until {@link #stop(long, TimeUnit)}.
+     */
+    public synchronized void start(Consumer<List<PayInRequest>> handler) {
+        if (worker != null) {
+            throw new IllegalStateException("Batch consumer already running");
+        }
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    handler.accept(nextBatch());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    log.error("Payment batch handler failed", e);
+                }
+            }
+            log.info("Payment batch consumer stopped");
+        }, "payin-batch-consumer");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    /**
+     * Interrupts the consumer thread and waits up to the timeout for the batch in hand to be handled.
+     */
+    public synchronized void stop(long timeout, TimeUnit unit) {
+        Thread stopping = worker;
+        if (stopping == null) {
+            return;
+        }
+        worker = null;
+        stopping.interrupt();
+        try {
+            stopping.join(Math.max(1, unit.toMillis(timeout)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (stopping.isAlive()) {
+            log.warn("Payment batch consumer did not stop within {} {}", timeout, unit);
+        }
+    }
+
+    private void record(int size) {
+        batches.increment();
+        requests.add(size);
+        sizeHistogram[31 - Integer.numberOfLeadingZeros(size)].increment();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) requests.sum() / count;
+    }
+
+    /**
+     * Bucket i counts batches whose size was in [2^i, 2^(i+1)).
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] snapshot = new long[sizeHistogram.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = sizeHistogram[i].sum();
+        }
+        return snapshot;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LinkedBlockingQueue<PayInRequest> queue = new LinkedBlockingQueue<>(1000);
+        PayInBatchConsumer consumer = new PayInBatchConsumer(queue, 64, 5);
+        LongAdder handled = new LongAdder();
+        consumer.start(batch -> handled.add(batch.size()));
+
+        for (int i = 0; i < 100_000; i++) {
+            queue.put(new PayInRequest());
+        }
+        while (handled.sum() < 100_000) {
+            Thread.sleep(10);
+        }
+        consumer.stop(5, TimeUnit.SECONDS);
+
+        System.out.println("Batches: " + consumer.getBatchCount() + ", average size: " + consumer.getAverageBatchSize());
+        System.out.println("Size histogram (1, 2-3, 4-7, ...): " + Arrays.toString(consumer.getBatchSizeHistogram()));
+    }
+}
@@ -0,0 +1,528 @@
+package com.java17.programs.redifined.all;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable overflow for the payment buffer: an append-only journal of PayInRequests in memory-mapped segment files.
+ *
+ * Layout: {@code <dir>/<20-digit base offset>.segment}, each segmentBytes long, holding records
+ *   [int length][int crc32 of payload][payload]
+ * back to back. Offsets are global byte positions across segments; a zero length ends a segment early
+ * (the next record didn't fit, continue at the next segment). A small mapped {@code cursor} file holds the
+ * offset of the next record to replay.
+ *
+ * - append() returns once the record is on disk. Durability is group-committed: one flusher thread msyncs
+ *   everything appended so far, so concurrent appenders share one fsync instead of paying one each.
+ * - Replay moves durable records, in order, into a target queue as it has capacity, then advances the cursor.
+ *   Fully replayed segments are deleted.
+ * - On startup the cursor is read back and the last segment is scanned up to the first record whose crc
+ *   doesn't match (a torn write), so everything appended but not replayed before a crash is replayed again.
+ *
+ * Replay is at-least-once: the cursor is written without its own fsync, so after an OS crash a few records
+ * may be replayed twice. Replayed records go straight into the target queue, not through the txnId idempotency
+ * store (which is in memory and empty after a restart anyway), so the payment handler must dedupe by txnId
+ * itself. Records already moved to the in-memory queue are as volatile as any other queued payment.
+ */
+public class PayInJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PayInJournal.class);
+
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private static final class Segment {
+        final long base;
+        final long size;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(long base, Path path, long size) throws IOException {
+            this.base = base;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // An existing file keeps its own size, so changing segmentBytes later doesn't misread it
+            this.size = Math.max(size, channel.size());
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+        }
+
+        long end() {
+            return base + size;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+
+    // All guarded by lock
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long writeOffset;
+    private long durableOffset;
+    private long readOffset;
+    private boolean closed;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final long recovered;
+    private final Thread flusher;
+    private Thread replayer;
+
+    public PayInJournal(Path dir, int segmentBytes) {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("segmentBytes must be at least 4096");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        try {
+            Files.createDirectories(dir);
+            this.cursorChannel = FileChannel.open(dir.resolve("cursor"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+            this.recovered = recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open payment journal in " + dir, e);
+        }
+        if (recovered > 0) {
+            log.info("Recovered {} journaled payment requests from {}", recovered, dir);
+        }
+        this.flusher = new Thread(this::flushLoop, "payin-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Called from the constructor only, before any other thread can see this journal
+    private long recover() throws IOException {
+        readOffset = cursor.getLong(0);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                    .toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(base, file, segmentBytes);
+            if (segment.end() <= readOffset) {
+                // Fully replayed before the restart, deletion just didn't happen yet
+                segment.channel.close();
+                Files.deleteIfExists(file);
+            } else {
+                segments.put(base, segment);
+            }
+        }
+        if (segments.isEmpty()) {
+            Segment first = new Segment(readOffset, segmentPath(readOffset), segmentBytes);
+            segments.put(first.base, first);
+            writeOffset = readOffset;
+            durableOffset = readOffset;
+            return 0;
+        }
+
+        readOffset = Math.max(readOffset, segments.firstKey());
+        Segment last = segments.lastEntry().getValue();
+        int position = (int) (Math.max(readOffset, last.base) - last.base);
+        int length;
+        while ((length = validRecordAt(last, position)) > 0) {
+            position += HEADER_BYTES + length;
+        }
+        writeOffset = last.base + position;
+        durableOffset = writeOffset;
+        readOffset = Math.min(readOffset, writeOffset);
+
+        long pending = 0;
+        for (long offset = readOffset; offset < writeOffset; ) {
+            Segment segment = segments.floorEntry(offset).getValue();
+            int length2 = recordLengthAt(segment, (int) (offset - segment.base));
+            if (length2 == 0) {
+                offset = segment.end();
+            } else {
+                pending++;
+                offset += HEADER_BYTES + length2;
+            }
+        }
+        return pending;
+    }
+
+    // Payload length of a complete, uncorrupted record at the position, or 0
+    private static int validRecordAt(Segment segment, int position) {
+        int length = recordLengthAt(segment, position);
+        if (length <= 0 || position + HEADER_BYTES + length > segment.size) {
+            return 0;
+        }
+        ByteBuffer payload = segment.buffer.slice(position + HEADER_BYTES, length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == segment.buffer.getInt(position + Integer.BYTES) ? length : 0;
+    }
+
+    private static int recordLengthAt(Segment segment, int position) {
+        return position + HEADER_BYTES > segment.size ? 0 : segment.buffer.getInt(position);
+    }
+
+    private Path segmentPath(long base) {
+        return dir.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    // ==== Writing ====
+
+    /**
+     * Appends the request and returns once it is durable on disk.
+     */
+    public void append(PayInRequest request) {
+        byte[] payload = encode(request);
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Payment request too large for a journal segment: " + recordBytes + " bytes");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Payment journal is closed");
+            }
+            Segment segment = segments.lastEntry().getValue();
+            int position = (int) (writeOffset - segment.base);
+            if (position + recordBytes > segment.size) {
+                if (position + Integer.BYTES <= segment.size) {
+                    // End-of-segment marker, so stale bytes after it are never read as a record
+                    segment.buffer.putInt(position, 0);
+                }
+                segment = openSegment(segment.end());
+                writeOffset = segment.base;
+                position = 0;
+            }
+            segment.buffer.putInt(position, payload.length);
+            segment.buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+            segment.buffer.put(position + HEADER_BYTES, payload);
+            writeOffset += recordBytes;
+            long end = writeOffset;
+            appends.increment();
+            appended.signal();
+
+            while (durableOffset < end && !closed) {
+                durable.awaitUninterruptibly();
+            }
+            if (durableOffset < end) {
+                throw new IllegalStateException("Payment journal closed before the request was flushed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment openSegment(long base) {
+        try {
+            Segment segment = new Segment(base, segmentPath(base), segmentBytes);
+            segments.put(base, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create payment journal segment at offset " + base, e);
+        }
+    }
+
+    // Group commit: one msync covers every record appended while the previous one was running
+    private void flushLoop() {
+        while (true) {
+            long target;
+            List<Segment> dirty;
+            lock.lock();
+            try {
+                while (!closed && writeOffset == durableOffset) {
+                    appended.awaitUninterruptibly();
+                }
+                if (writeOffset == durableOffset) {
+                    return;
+                }
+                target = writeOffset;
+                Long from = segments.floorKey(durableOffset);
+                dirty = new ArrayList<>(segments.tailMap(from == null ? segments.firstKey() : from, true).values());
+            } finally {
+                lock.unlock();
+            }
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            fsyncs.increment();
+            lock.lock();
+            try {
+                durableOffset = target;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // ==== Replay ====
+
+    /**
+     * Starts a thread that moves durable records, in order, into the target queue as it has room.
+     */
+    public void startReplay(BlockingQueue<PayInRequest> target) {
+        lock.lock();
+        try {
+            if (replayer != null) {
+                throw new IllegalStateException("Payment journal replay already running");
+            }
+            replayer = new Thread(() -> replayLoop(target), "payin-journal-replay");
+            replayer.setDaemon(true);
+            replayer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replayLoop(BlockingQueue<PayInRequest> target) {
+        while (true) {
+            PayInRequest request;
+            long next;
+            lock.lock();
+            try {
+                while (!closed && readOffset >= durableOffset) {
+                    durable.await();
+                }
+                if (closed) {
+                    return;
+                }
+                Segment segment = segments.floorEntry(readOffset).getValue();
+                int position = (int) (readOffset - segment.base);
+                int length = recordLengthAt(segment, position);
+                if (length == 0) {
+                    // The writer moved on to the next segment: this one is fully replayed
+                    readOffset = segment.end();
+                    cursor.putLong(0, readOffset);
+                    deleteSegment(segment);
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                segment.buffer.get(position + HEADER_BYTES, payload);
+                request = decode(payload);
+                next = readOffset + HEADER_BYTES + length;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                target.put(request);
+            } catch (InterruptedException e) {
+                return;
+            }
+            lock.lock();
+            try {
+                // Advanced only after the hand-off, so isEmpty() stays false while a record is on its way
+                readOffset = next;
+                cursor.putLong(0, readOffset);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment.base);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Could not delete replayed journal segment {}", segment.path, e);
+        }
+    }
+
+    /**
+     * True when every appended record has been handed to the replay target.
+     */
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return readOffset == writeOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAppendCount() {
+        return appends.sum();
+    }
+
+    public long getFsyncCount() {
+        return fsyncs.sum();
+    }
+
+    /**
+     * Records found on disk, not yet replayed, when this journal was opened.
+     */
+    public long getRecoveredCount() {
+        return recovered;
+    }
+
+    @Override
+    public void close() {
+        Thread replay;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appended.signalAll();
+            durable.signalAll();
+            replay = replayer;
+        } finally {
+            lock.unlock();
+        }
+        if (replay != null) {
+            replay.interrupt();
+        }
+        try {
+            flusher.join();
+            if (replay != null) {
+                replay.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            cursor.force();
+            cursorChannel.close();
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Error closing payment journal {}", dir, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==== Encoding: txnId, userId, priority ====
+
+    private static byte[] encode(PayInRequest request) {
+        byte[] txnId = bytes(request.getTxnId());
+        byte[] userId = bytes(request.getUserId());
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + lengthOf(txnId) + lengthOf(userId) + 1);
+        put(buffer, txnId);
+        put(buffer, userId);
+        buffer.put((byte) request.getPriority().ordinal());
+        return buffer.array();
+    }
+
+    private static PayInRequest decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        String txnId = string(buffer);
+        String userId = string(buffer);
+        PayInRequest.Priority priority = PayInRequest.Priority.values()[buffer.get()];
+        return new PayInRequest(txnId, userId, priority);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int lengthOf(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void put(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value == null ? -1 : value.length);
+        if (value != null) {
+            buffer.put(value);
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    // Benchmark on local disk: concurrent appenders with group commit, then crash-style reopen and ordered replay
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("payin-journal");
+        int threads = 16;
+        int perThread = 5_000;
+        PayInJournal journal = new PayInJournal(dir, 1 << 20);
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    journal.append(new PayInRequest(thread + ":" + i, "user-" + thread));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d durable appends in %d ms: %,.0f appends/s, %d fsyncs (%.1f appends per fsync)%n",
+                journal.getAppendCount(), elapsed / 1_000_000, journal.getAppendCount() * 1e9 / elapsed,
+                journal.getFsyncCount(), (double) journal.getAppendCount() / journal.getFsyncCount());
+        journal.close();
+
+        // Reopen as after a restart and replay everything, checking per-thread order
+        PayInJournal reopened = new PayInJournal(dir, 1 << 20);
+        System.out.println("Recovered at startup: " + reopened.getRecoveredCount());
+        LinkedBlockingQueue<PayInRequest> target = new LinkedBlockingQueue<>(1_000);
+        reopened.startReplay(target);
+        int[] lastSeen = new int[threads];
+        Arrays.fill(lastSeen, -1);
+        int outOfOrder = 0;
+        for (int i = 0; i < threads * perThread; i++) {
+            String[] parts = target.take().getTxnId().split(":");
+            int thread = Integer.parseInt(parts[0]);
+            int sequence = Integer.parseInt(parts[1]);
+            if (sequence != lastSeen[thread] + 1) {
+                outOfOrder++;
+            }
+            lastSeen[thread] = sequence;
+        }
+        Thread.sleep(50);
+        System.out.println("Replayed in order (violations: " + outOfOrder + "), journal empty: " + reopened.isEmpty());
+        reopened.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            System.out.println("Files left: " + files.map(p -> p.getFileName().toString()).toList());
+        }
+    }
+}
@@ -2,8 +2,52 @@ package com.java17.programs.redifined.all;
 
 public class PayInRequest {
 
+    // Lane in the payment buffer when it runs in PRIORITY mode, highest first
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
     private String txnId;
+
+    // Payments of the same user are processed in order when the payment buffer is partitioned
+    private String userId;
+
+    private Priority priority = Priority.NORMAL;
+
+    public PayInRequest() {
+    }
+
+    public PayInRequest(String txnId) {
+        this.txnId = txnId;
+    }
+
+    public PayInRequest(String txnId, String userId) {
+        this.txnId = txnId;
+        this.userId = userId;
+    }
+
+    public PayInRequest(String txnId, Priority priority) {
+        this.txnId = txnId;
+        this.priority = priority;
+    }
+
+    public PayInRequest(String txnId, String userId, Priority priority) {
+        this.txnId = txnId;
+        this.userId = userId;
+        this.priority = priority;
+    }
+
     public String getTxnId() {
         return txnId;
     }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
 }
@@ -0,0 +1,393 @@
+package com.java17.programs.redifined.all;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded blocking queue with a few priority lanes (lane 0 = highest) and weighted dequeue between them.
+ *
+ * Each lane is FIFO. Dequeue works in rounds: lane i may hand out weights[i] elements per round, highest lane first,
+ * and a new round starts once every non-empty lane has used its share. With weights 8,4,1 a backlog of low
+ * priority work still gets 1 of every 13 dequeues, so it is delayed but never starved, and an idle lane's share
+ * simply goes to the others.
+ *
+ * Capacity is shared by all lanes. One lock guards everything, like LinkedBlockingQueue's put/take pair would,
+ * which is fine at payment-queue rates; per-lane depth, throughput and time-in-queue are tracked for metrics.
+ */
+public class PriorityLaneQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final class Queued<E> {
+        final E element;
+        final long enqueuedNanos;
+
+        Queued(E element, long enqueuedNanos) {
+            this.element = element;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static final class Lane<E> {
+        final int weight;
+        final ArrayDeque<Queued<E>> elements = new ArrayDeque<>();
+        final LatencyHistogram waitTime = new LatencyHistogram();
+        final LongAdder enqueued = new LongAdder();
+        // Guarded by lock: dequeues left for this lane in the current round
+        int credit;
+
+        Lane(int weight) {
+            this.weight = weight;
+            this.credit = weight;
+        }
+    }
+
+    /**
+     * Point-in-time figures of one lane.
+     */
+    public static class LaneMetrics {
+        private final int lane;
+        private final int depth;
+        private final long enqueued;
+        private final LatencyHistogram waitTime;
+
+        LaneMetrics(int lane, int depth, long enqueued, LatencyHistogram waitTime) {
+            this.lane = lane;
+            this.depth = depth;
+            this.enqueued = enqueued;
+            this.waitTime = waitTime;
+        }
+
+        public int getLane() {
+            return lane;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public LatencyHistogram getWaitTime() {
+            return waitTime;
+        }
+
+        @Override
+        public String toString() {
+            return "lane " + lane + ": depth=" + depth + ", enqueued=" + enqueued + ", wait " + waitTime;
+        }
+    }
+
+    private final List<Lane<E>> lanes;
+    private final ToIntFunction<? super E> laneOf;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Guarded by lock
+    private int count;
+
+    /**
+     * @param weights dequeues per round for each lane, highest priority first
+     * @param laneOf  lane index of an element, 0 to weights.length - 1
+     */
+    public PriorityLaneQueue(int capacity, List<Integer> weights, ToIntFunction<? super E> laneOf) {
+        if (capacity <= 0 || weights.isEmpty()) {
+            throw new IllegalArgumentException("capacity must be positive and at least one lane is required");
+        }
+        List<Lane<E>> laneList = new ArrayList<>(weights.size());
+        for (int weight : weights) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Lane weights must be positive: " + weights);
+            }
+            laneList.add(new Lane<>(weight));
+        }
+        this.lanes = List.copyOf(laneList);
+        this.laneOf = laneOf;
+        this.capacity = capacity;
+    }
+
+    private Lane<E> laneFor(E e) {
+        int lane = laneOf.applyAsInt(e);
+        if (lane < 0 || lane >= lanes.size()) {
+            throw new IllegalArgumentException("Lane " + lane + " out of range for " + lanes.size() + " lanes");
+        }
+        return lanes.get(lane);
+    }
+
+    // ==== Producer side ====
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        Lane<E> lane = laneFor(e);
+        lock.lock();
+        try {
+            if (count == capacity) {
+                return false;
+            }
+            enqueue(lane, e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        Lane<E> lane = laneFor(e);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(lane, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        Lane<E> lane = laneFor(e);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(lane, e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Lane<E> lane, E e) {
+        lane.elements.addLast(new Queued<>(e, System.nanoTime()));
+        lane.enqueued.increment();
+        count++;
+        notEmpty.signal();
+    }
+
+    // ==== Consumer side ====
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && count > 0) {
+                // Drained in weighted order too, so a batch doesn't bypass the lanes
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Requires count > 0 and the lock held
+    private E dequeue() {
+        Lane<E> lane = nextLane();
+        Queued<E> queued = lane.elements.pollFirst();
+        lane.credit--;
+        count--;
+        lane.waitTime.record(System.nanoTime() - queued.enqueuedNanos);
+        notFull.signal();
+        return queued.element;
+    }
+
+    private Lane<E> nextLane() {
+        for (Lane<E> lane : lanes) {
+            if (lane.credit > 0 && !lane.elements.isEmpty()) {
+                return lane;
+            }
+        }
+        // Every non-empty lane used its share: start a new round
+        for (Lane<E> lane : lanes) {
+            lane.credit = lane.weight;
+        }
+        for (Lane<E> lane : lanes) {
+            if (!lane.elements.isEmpty()) {
+                return lane;
+            }
+        }
+        throw new IllegalStateException("dequeue on an empty queue");
+    }
+
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            for (Lane<E> lane : lanes) {
+                if (lane.credit > 0 && !lane.elements.isEmpty()) {
+                    return lane.elements.peekFirst().element;
+                }
+            }
+            for (Lane<E> lane : lanes) {
+                if (!lane.elements.isEmpty()) {
+                    return lane.elements.peekFirst().element;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==== Introspection ====
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public List<LaneMetrics> laneMetrics() {
+        List<LaneMetrics> metrics = new ArrayList<>(lanes.size());
+        lock.lock();
+        try {
+            for (int i = 0; i < lanes.size(); i++) {
+                Lane<E> lane = lanes.get(i);
+                metrics.add(new LaneMetrics(i, lane.elements.size(), lane.enqueued.sum(), lane.waitTime));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return metrics;
+    }
+
+    /**
+     * Snapshot of the queued elements, lane by lane; meant for logging and debugging only.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Lane<E> lane : lanes) {
+                lane.elements.forEach(q -> snapshot.add(q.element));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    // Demo: a burst of 20k small top-ups ahead of 200 high-value payments, FIFO vs priority lanes
+    public static void main(String[] args) throws InterruptedException {
+        int topUps = 20_000;
+        int highValue = 200;
+        run("FIFO", new LinkedBlockingQueue<>(), topUps, highValue);
+        PriorityLaneQueue<PayInRequest> lanes = new PriorityLaneQueue<>(Integer.MAX_VALUE, List.of(8, 4, 1),
+                r -> r.getPriority().ordinal());
+        run("Priority lanes", lanes, topUps, highValue);
+        lanes.laneMetrics().forEach(System.out::println);
+    }
+
+    private static void run(String name, BlockingQueue<PayInRequest> queue, int topUps, int highValue)
+            throws InterruptedException {
+        for (int i = 0; i < topUps; i++) {
+            queue.put(new PayInRequest("topup-" + i, PayInRequest.Priority.LOW));
+            if (i % (topUps / highValue) == 0) {
+                queue.put(new PayInRequest("payment-" + i, PayInRequest.Priority.HIGH));
+            }
+        }
+        // Consumer processes 20 requests per millisecond
+        int position = 0;
+        long lastHighPosition = 0;
+        long lastLowPosition = 0;
+        PayInRequest request;
+        while ((request = queue.poll()) != null) {
+            position++;
+            if (request.getPriority() == PayInRequest.Priority.HIGH) {
+                lastHighPosition = position;
+            } else {
+                lastLowPosition = position;
+            }
+        }
+        System.out.printf("%-15s last high-value payment done after %4d ms, last top-up after %4d ms%n",
+                name, lastHighPosition / 20, lastLowPosition / 20);
+    }
+}
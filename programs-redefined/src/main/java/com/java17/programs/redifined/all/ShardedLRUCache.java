@@ -0,0 +1,249 @@
+package com.java17.programs.redifined.all;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * LRU cache split into independent segments, each a {@link ConcurrentLRUCache} with its own eviction lock and a
+ * share of the total capacity, so writers on different segments never wait for each other.
+ *
+ * Keys are spread over the segments by hash. With a skewed key population some segments would evict while
+ * others sit half empty, so the shares are rebalanced every now and then (about once per REBALANCE_SAMPLE puts):
+ * each segment's demand is its size plus what it evicted since the last rebalance, and capacity moves halfway
+ * towards a split proportional to demand, never below a quarter of an even share. Segments shrink before others
+ * grow, so the total stays within the capacity.
+ */
+public class ShardedLRUCache<K, V> {
+
+    // One in this many puts (a power of two) tries to rebalance
+    private static final int REBALANCE_SAMPLE = 1024;
+
+    private final ConcurrentLRUCache<K, V>[] segments;
+    private final int segmentShift;
+    private final int capacity;
+    private final int minSegmentCapacity;
+    private final boolean rebalancing;
+
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+    // Guarded by rebalanceLock
+    private final long[] lastEvictions;
+    private long rebalances;
+
+    public ShardedLRUCache(int capacity) {
+        this(capacity, Math.min(256, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1), true);
+    }
+
+    /**
+     * @param segments number of segments, a power of two no larger than the capacity
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedLRUCache(int capacity, int segments, boolean rebalancing) {
+        if (segments <= 0 || Integer.bitCount(segments) != 1 || capacity < segments) {
+            throw new IllegalArgumentException("Require a power-of-two segment count <= capacity, got "
+                    + segments + " segments for capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.rebalancing = rebalancing;
+        this.segments = (ConcurrentLRUCache<K, V>[]) new ConcurrentLRUCache<?, ?>[segments];
+        for (int i = 0; i < segments; i++) {
+            // Spread the remainder so the shares add up to the capacity
+            this.segments[i] = new ConcurrentLRUCache<>(capacity / segments + (i < capacity % segments ? 1 : 0));
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segments);
+        this.minSegmentCapacity = Math.max(1, capacity / segments / 4);
+        this.lastEvictions = new long[segments];
+    }
+
+    // Top bits of a multiplicative hash, so the segment index doesn't correlate with the bucket index inside it
+    int segmentIndex(Object key) {
+        return segmentShift == 32 ? 0 : (key.hashCode() * 0x9E3779B9) >>> segmentShift;
+    }
+
+    private ConcurrentLRUCache<K, V> segmentFor(Object key) {
+        return segments[segmentIndex(key)];
+    }
+
+    public V get(K key) {
+        return segmentFor(key).get(key);
+    }
+
+    public V put(K key, V value) {
+        V previous = segmentFor(key).put(key, value);
+        if (rebalancing && (ThreadLocalRandom.current().nextInt() & (REBALANCE_SAMPLE - 1)) == 0) {
+            rebalance();
+        }
+        return previous;
+    }
+
+    public V remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Moves capacity from segments with slack to segments that are evicting. Skipped if another thread is at it.
+     */
+    public void rebalance() {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+        try {
+            int n = segments.length;
+            long[] demand = new long[n];
+            long totalDemand = 0;
+            for (int i = 0; i < n; i++) {
+                long evictions = segments[i].getEvictions();
+                demand[i] = segments[i].size() + (evictions - lastEvictions[i]);
+                lastEvictions[i] = evictions;
+                totalDemand += demand[i];
+            }
+            if (totalDemand == 0) {
+                return;
+            }
+            int[] target = new int[n];
+            int distributable = capacity - minSegmentCapacity * n;
+            int assigned = 0;
+            for (int i = 0; i < n; i++) {
+                int fair = minSegmentCapacity + (int) (distributable * demand[i] / totalDemand);
+                // Move halfway, so one noisy interval doesn't swing the shares back and forth
+                target[i] = Math.max(minSegmentCapacity, (segments[i].getCapacity() + fair) / 2);
+                assigned += target[i];
+            }
+            // Rounding leftovers (or overshoot) go to, or come from, the segment with the most demand
+            int busiest = 0;
+            for (int i = 1; i < n; i++) {
+                if (demand[i] > demand[busiest]) {
+                    busiest = i;
+                }
+            }
+            target[busiest] = Math.max(minSegmentCapacity, target[busiest] + capacity - assigned);
+
+            for (int i = 0; i < n; i++) {
+                if (target[i] < segments[i].getCapacity()) {
+                    segments[i].setCapacity(target[i]);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (target[i] > segments[i].getCapacity()) {
+                    segments[i].setCapacity(target[i]);
+                }
+            }
+            rebalances++;
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentLRUCache<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int[] segmentCapacities() {
+        return Arrays.stream(segments).mapToInt(ConcurrentLRUCache::getCapacity).toArray();
+    }
+
+    public int[] segmentSizes() {
+        return Arrays.stream(segments).mapToInt(ConcurrentLRUCache::size).toArray();
+    }
+
+    public long getRebalances() {
+        rebalanceLock.lock();
+        try {
+            return rebalances;
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    public double getHitRate() {
+        long hits = 0;
+        long total = 0;
+        for (ConcurrentLRUCache<K, V> segment : segments) {
+            hits += segment.getHits();
+            total += segment.getHits() + segment.getMisses();
+        }
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d, segments=%d, hitRate=%.3f, rebalances=%d", size(), capacity,
+                segments.length, getHitRate(), getRebalances());
+    }
+
+    // Throughput curve (1-64 threads) vs the single-lock caches, then a skewed workload with and without rebalancing
+    public static void main(String[] args) throws InterruptedException {
+        int capacity = 100_000;
+        long millis = Long.getLong("millis", 1_000);
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            ShardedLRUCache<Integer, Integer> sharded = new ShardedLRUCache<>(capacity, 64, true);
+            ConcurrentLRUCache<Integer, Integer> single = new ConcurrentLRUCache<>(capacity);
+            HighConcurrencyLRUCacheWithConcurrentHashMapDeque<Integer, Integer> synchronizedDeque =
+                    new HighConcurrencyLRUCacheWithConcurrentHashMapDeque<>(capacity);
+            System.out.printf("%2d threads: sharded %,11.0f ops/s, single lock %,11.0f ops/s, synchronized deque %,9.0f ops/s%n",
+                    threads,
+                    throughput(threads, millis, 2 * capacity, sharded::get, k -> sharded.put(k, k)),
+                    throughput(threads, millis, 2 * capacity, single::get, k -> single.put(k, k)),
+                    throughput(threads, millis, 2 * capacity, synchronizedDeque::get, k -> synchronizedDeque.put(k, k)));
+        }
+
+        // All keys land in 4 of 16 segments: a working set that fits the cache but not their even shares
+        for (boolean rebalancing : new boolean[]{false, true}) {
+            ShardedLRUCache<Integer, Integer> cache = new ShardedLRUCache<>(16_000, 16, rebalancing);
+            int[] keys = new int[8_000];
+            for (int k = 0, found = 0; found < keys.length; k++) {
+                if (cache.segmentIndex(k) < 4) {
+                    keys[found++] = k;
+                }
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 2_000_000; i++) {
+                int key = keys[random.nextInt(keys.length)];
+                if (cache.get(key) == null) {
+                    cache.put(key, key);
+                }
+            }
+            System.out.println((rebalancing ? "rebalanced " : "fixed shares") + ": " + cache
+                    + ", capacities " + Arrays.toString(cache.segmentCapacities()));
+        }
+    }
+
+    private static double throughput(int threads, long millis, int keySpace, IntFunction<Integer> get,
+                                     IntConsumer put) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (running.get()) {
+                    int key = random.nextInt(keySpace);
+                    if (get.apply(key) == null) {
+                        put.accept(key);
+                    }
+                    count++;
+                }
+                ops.add(count);
+                done.countDown();
+            }).start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        done.await();
+        return ops.sum() / (millis / 1e3);
+    }
+}
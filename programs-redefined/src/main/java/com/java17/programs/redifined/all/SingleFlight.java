@@ -0,0 +1,146 @@
+package com.java17.programs.redifined.all;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keyed request coalescing ("single flight"): while a call for a key is in flight, every other caller for that
+ * key waits on its result instead of starting its own call. Each caller gets its own copy of the shared future,
+ * so one caller cancelling or completing theirs doesn't change what the others (or later ones, within the ttl) see.
+ *
+ * With a positive ttl the completed result keeps being handed out for that long afterwards; failures are
+ * never cached, so the next caller after a failure starts a fresh call. An entry is removed as soon as it
+ * is neither in flight nor within its ttl, so the map only holds keys that are actually being asked for.
+ *
+ * Keys are shared across result types: using one key for two different result types is a caller bug.
+ */
+public class SingleFlight {
+
+    private static final class Flight {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        // Long.MAX_VALUE while in flight, then completion time + ttl
+        volatile long expiresAtNanos = Long.MAX_VALUE;
+    }
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the in-flight (or still fresh) result for the key, or starts {@code call} and shares its result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> coalesce(String key, Duration ttl, Supplier<CompletableFuture<T>> call) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight != null) {
+                if (flight.expiresAtNanos - System.nanoTime() > 0) {
+                    return (CompletableFuture<T>) (CompletableFuture<?>) flight.result.copy();
+                }
+                // Stale: whoever removes it first starts the next flight
+                flights.remove(key, flight);
+                continue;
+            }
+            Flight started = new Flight();
+            if (flights.putIfAbsent(key, started) == null) {
+                launch(key, ttl, started, call);
+                return (CompletableFuture<T>) (CompletableFuture<?>) started.result.copy();
+            }
+        }
+    }
+
+    private <T> void launch(String key, Duration ttl, Flight flight, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> source;
+        try {
+            source = call.get();
+            if (source == null) {
+                throw new NullPointerException("Single-flight call for " + key + " returned null");
+            }
+        } catch (Throwable e) {
+            // Never leave the key behind a flight that can't complete: joined callers and later ones would hang
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            return;
+        }
+        source.whenComplete((value, error) -> {
+            if (error != null || ttl == null || ttl.isZero() || ttl.isNegative()) {
+                flights.remove(key, flight);
+            } else {
+                flight.expiresAtNanos = System.nanoTime() + ttl.toNanos();
+                CompletableFuture.delayedExecutor(ttl.toNanos(), TimeUnit.NANOSECONDS)
+                        .execute(() -> flights.remove(key, flight));
+            }
+            // Complete after the map is updated, so a caller reacting to a failure can start a fresh flight at once
+            if (error != null) {
+                flight.result.completeExceptionally(error);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+    }
+
+    /**
+     * Keys currently in flight or within their result ttl.
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    // Demo: 1000 concurrent callers for the same FX rate, counting how often the downstream is really called
+    public static void main(String[] args) throws InterruptedException {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger downstreamCalls = new AtomicInteger();
+        Supplier<CompletableFuture<Double>> fetchRate = () -> CompletableFuture.supplyAsync(() -> {
+            downstreamCalls.incrementAndGet();
+            sleep(50);
+            return 1.0842;
+        });
+
+        wave("Without coalescing", 1_000, fetchRate, downstreamCalls);
+        wave("Coalesced, no ttl", 1_000, () -> singleFlight.coalesce("fx:EURUSD", Duration.ZERO, fetchRate), downstreamCalls);
+        Duration ttl = Duration.ofMillis(500);
+        wave("Coalesced, 500ms ttl", 1_000, () -> singleFlight.coalesce("fx:EURUSD", ttl, fetchRate), downstreamCalls);
+        wave("Again within the ttl", 1_000, () -> singleFlight.coalesce("fx:EURUSD", ttl, fetchRate), downstreamCalls);
+        sleep(600);
+        wave("After the ttl", 1_000, () -> singleFlight.coalesce("fx:EURUSD", ttl, fetchRate), downstreamCalls);
+        sleep(600);
+        System.out.println("Entries left: " + singleFlight.size());
+    }
+
+    private static void wave(String name, int callers, Supplier<CompletableFuture<Double>> call,
+                             AtomicInteger downstreamCalls) throws InterruptedException {
+        downstreamCalls.set(0);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(callers);
+        AtomicInteger results = new AtomicInteger();
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    if (call.get().join() > 0) {
+                        results.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        System.out.printf("%-22s %d callers got a result, downstream called %d times%n", name, results.get(),
+                downstreamCalls.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
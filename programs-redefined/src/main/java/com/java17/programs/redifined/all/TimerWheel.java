@@ -0,0 +1,139 @@
+package com.java17.programs.redifined.all;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel that finds the cache entries whose deadline has passed without scanning the cache.
+ *
+ * Level 0 has 64 buckets of ~1.07s (2^30 ns), level 1 64 buckets of ~1.14min, level 2 32 buckets of ~1.22h,
+ * level 3 4 buckets of ~19.5h, and the last level one bucket for anything further out. An entry goes into the
+ * level whose span covers its remaining time, as a node of an intrusive list, so scheduling and descheduling are
+ * O(1). Advancing the clock only visits the buckets whose time slot has passed: entries that are due are handed
+ * to the caller, the rest were in a coarse bucket and move down to a finer one. Each entry cascades at most once
+ * per level, so reclaiming it is amortized O(1).
+ *
+ * Not thread-safe: the owning cache only calls it under its eviction lock.
+ */
+public class TimerWheel<K, V> {
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+            1L << 30, // 1.07s
+            1L << 36, // 1.14min
+            1L << 42, // 1.22h
+            1L << 46, // 19.5h
+            1L << 48, // 3.26d
+            1L << 48  // upper bound of the last level
+    };
+    private static final int[] SHIFTS = new int[SPANS.length];
+
+    static {
+        for (int i = 0; i < SPANS.length; i++) {
+            SHIFTS[i] = Long.numberOfTrailingZeros(SPANS[i]);
+        }
+    }
+
+    private final ConcurrentLRUCache.ExpiringNode<K, V>[][] wheel;
+    private long nanos;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long nowNanos) {
+        this.nanos = nowNanos;
+        this.wheel = (ConcurrentLRUCache.ExpiringNode<K, V>[][]) new ConcurrentLRUCache.ExpiringNode<?, ?>[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = (ConcurrentLRUCache.ExpiringNode<K, V>[]) new ConcurrentLRUCache.ExpiringNode<?, ?>[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                // Each bucket is a circular list around a sentinel node
+                ConcurrentLRUCache.ExpiringNode<K, V> sentinel = new ConcurrentLRUCache.ExpiringNode<>(null, null);
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Adds the node, or moves it if it is already scheduled, to the bucket for its {@code timerDeadline}.
+     */
+    void schedule(ConcurrentLRUCache.ExpiringNode<K, V> node) {
+        deschedule(node);
+        ConcurrentLRUCache.ExpiringNode<K, V> sentinel = findBucket(node.timerDeadline);
+        node.timerPrev = sentinel.timerPrev;
+        node.timerNext = sentinel;
+        sentinel.timerPrev.timerNext = node;
+        sentinel.timerPrev = node;
+        size++;
+    }
+
+    void deschedule(ConcurrentLRUCache.ExpiringNode<K, V> node) {
+        if (node.timerNext != null) {
+            node.timerPrev.timerNext = node.timerNext;
+            node.timerNext.timerPrev = node.timerPrev;
+            node.timerPrev = null;
+            node.timerNext = null;
+            size--;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private ConcurrentLRUCache.ExpiringNode<K, V> findBucket(long deadline) {
+        long duration = deadline - nanos;
+        int last = wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < SPANS[i + 1]) {
+                // Already due: the current bucket, which the next advance visits first
+                long ticks = (duration <= 0 ? nanos : deadline) >>> SHIFTS[i];
+                return wheel[i][(int) ticks & (wheel[i].length - 1)];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    /**
+     * Moves the clock to {@code nowNanos} and hands every node whose deadline has passed to {@code expired},
+     * which must either drop the node or give it a later {@code timerDeadline} and {@link #schedule} it again.
+     */
+    void advance(long nowNanos, Consumer<ConcurrentLRUCache.ExpiringNode<K, V>> expired) {
+        long previous = nanos;
+        nanos = nowNanos;
+        for (int i = 0; i < SHIFTS.length - 1; i++) {
+            long previousTicks = previous >>> SHIFTS[i];
+            long currentTicks = nowNanos >>> SHIFTS[i];
+            if (currentTicks - previousTicks <= 0) {
+                // Coarser levels can't have ticked either
+                break;
+            }
+            expire(i, previousTicks, currentTicks - previousTicks, expired);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta, Consumer<ConcurrentLRUCache.ExpiringNode<K, V>> expired) {
+        ConcurrentLRUCache.ExpiringNode<K, V>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + delta, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            ConcurrentLRUCache.ExpiringNode<K, V> sentinel = buckets[i & mask];
+            // Detach the whole bucket first: nodes that are not due yet are rescheduled into other buckets
+            ConcurrentLRUCache.ExpiringNode<K, V> node = sentinel.timerNext;
+            sentinel.timerPrev = sentinel;
+            sentinel.timerNext = sentinel;
+            while (node != sentinel) {
+                ConcurrentLRUCache.ExpiringNode<K, V> next = node.timerNext;
+                node.timerPrev = null;
+                node.timerNext = null;
+                size--;
+                if (node.timerDeadline - nanos <= 0) {
+                    expired.accept(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.java17.programs.redifined.all;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of per-user locks that stays bounded no matter how many distinct users it sees.
+ *
+ * REFERENCE_COUNTED → one ReentrantLock per user, but only while somebody holds or waits for it.
+ *                     Every acquire() bumps a reference count, every release() drops it, and the
+ *                     entry is removed from the map when the count reaches zero.
+ *
+ * STRIPED           → a fixed array of locks, the user id is hashed onto one of them.
+ *                     Zero allocation, constant memory, but unrelated users may share a stripe.
+ *
+ * Usage:
+ *   Lock lock = registry.acquire(userId);
+ *   lock.lock();
+ *   try { ... } finally { lock.unlock(); registry.release(userId); }
+ */
+public class UserLockRegistry {
+
+    public enum Mode {
+        REFERENCE_COUNTED,
+        STRIPED
+    }
+
+    private static final class CountedLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        // Only mutated inside ConcurrentHashMap.compute for this key, which serializes access
+        private int references;
+    }
+
+    private final Mode mode;
+    private final ConcurrentHashMap<String, CountedLock> locks;
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+
+    public UserLockRegistry() {
+        this(Mode.REFERENCE_COUNTED, 0);
+    }
+
+    public UserLockRegistry(Mode mode, int stripeCount) {
+        this.mode = mode;
+        if (mode == Mode.STRIPED) {
+            if (stripeCount <= 0) {
+                throw new IllegalArgumentException("stripeCount must be positive: " + stripeCount);
+            }
+            // Round up to a power of two so the stripe index is a simple mask
+            int size = Integer.highestOneBit(stripeCount - 1) << 1;
+            size = Math.max(size, 1);
+            this.stripes = new ReentrantLock[size];
+            for (int i = 0; i < size; i++) {
+                stripes[i] = new ReentrantLock();
+            }
+            this.stripeMask = size - 1;
+            this.locks = null;
+        } else {
+            this.locks = new ConcurrentHashMap<>();
+            this.stripes = null;
+            this.stripeMask = 0;
+        }
+    }
+
+    /**
+     * Returns the (not yet locked) lock guarding this user and registers the caller as a user of it.
+     * Every call must be paired with {@link #release(String)} once the lock has been unlocked.
+     */
+    public Lock acquire(String userId) {
+        if (mode == Mode.STRIPED) {
+            return stripes[stripeIndex(userId)];
+        }
+        return locks.compute(userId, (k, lock) -> {
+            if (lock == null) {
+                lock = new CountedLock();
+            }
+            lock.references++;
+            return lock;
+        });
+    }
+
+    /**
+     * Drops the caller's reference; the lock is forgotten once nobody references it any more.
+     */
+    public void release(String userId) {
+        if (mode == Mode.STRIPED) {
+            return;
+        }
+        locks.computeIfPresent(userId, (k, lock) -> --lock.references == 0 ? null : lock);
+    }
+
+    /**
+     * Global acquisition order for locking several users at once: every caller that sorts by this order
+     * takes locks in the same sequence, so no two callers can wait on each other in a cycle.
+     * STRIPED orders by stripe first, so users sharing a stripe are adjacent and simply re-enter it.
+     */
+    public Comparator<String> lockOrder() {
+        if (mode == Mode.STRIPED) {
+            return Comparator.comparingInt(this::stripeIndex).thenComparing(Comparator.naturalOrder());
+        }
+        return Comparator.naturalOrder();
+    }
+
+    public int stripeIndex(String userId) {
+        int h = userId.hashCode();
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Number of lock objects currently alive: live users in REFERENCE_COUNTED mode, stripe count in STRIPED mode.
+     */
+    public int size() {
+        return mode == Mode.STRIPED ? stripes.length : locks.size();
+    }
+
+    // Stress demo: 10M distinct users must not grow the registry or the heap
+    public static void main(String[] args) throws InterruptedException {
+        UserLockRegistry registry = new UserLockRegistry();
+        int threads = 8;
+        int usersPerThread = 10_000_000 / threads;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int offset = t * usersPerThread;
+            new Thread(() -> {
+                for (int i = 0; i < usersPerThread; i++) {
+                    String userId = "wallet-" + (offset + i);
+                    Lock lock = registry.acquire(userId);
+                    lock.lock();
+                    try {
+                        // critical section
+                    } finally {
+                        lock.unlock();
+                        registry.release(userId);
+                    }
+                }
+                done.countDown();
+            }, "Stress-" + t).start();
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        while (!done.await(1, TimeUnit.SECONDS)) {
+            System.out.println("Live locks: " + registry.size()
+                    + ", used heap MB: " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+        }
+        System.gc();
+        System.out.println("Finished 10M users. Live locks: " + registry.size()
+                + ", used heap MB: " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+    }
+}
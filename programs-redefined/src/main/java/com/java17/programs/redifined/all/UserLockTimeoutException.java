@@ -0,0 +1,25 @@
+package com.java17.programs.redifined.all;
+
+/**
+ * Thrown when a user lock could not be acquired before the caller's deadline.
+ */
+public class UserLockTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String userId;
+
+    public UserLockTimeoutException(String userId, String message) {
+        super(message);
+        this.userId = userId;
+    }
+
+    public UserLockTimeoutException(String userId, String message, Throwable cause) {
+        super(message, cause);
+        this.userId = userId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+}
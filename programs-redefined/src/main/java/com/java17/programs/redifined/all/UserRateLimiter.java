@@ -0,0 +1,183 @@
+package com.java17.programs.redifined.all;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-user token bucket rate limiter.
+ *
+ * Each bucket is a single AtomicLong holding the "theoretical arrival time" (GCRA form of a token bucket):
+ *
+ *   emission interval = 1s / permitsPerSecond
+ *   tryAcquire(n)     → tat = max(state, now); next = tat + n * interval
+ *                       allowed if next - now <= burst * interval, then CAS state → next
+ *
+ * That gives the same answers as "refill tokens, subtract n", but the whole state update is one CAS,
+ * so there are no locks and nothing is allocated once a user's bucket exists.
+ *
+ * Idle expiry: a bucket whose arrival time is older than now - idleTimeout is indistinguishable from a
+ * brand new (full) bucket, so it can be dropped. Sweeps piggyback on tryAcquire, no extra thread needed:
+ * once per idleTimeout a sweep starts, and each call then advances it by at most SWEEP_BATCH buckets, so no
+ * request pays for a scan of every user.
+ */
+public class UserRateLimiter {
+
+    private static final class Bucket extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        Bucket(long createdNanos) {
+            super(createdNanos);
+        }
+    }
+
+    // Buckets a single tryAcquire checks at most while a sweep is in progress
+    private static final int SWEEP_BATCH = 64;
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long idleTimeoutNanos;
+    // Both written only by the thread holding sweeping; volatile so the fast path can read them without it
+    private volatile long nextSweepNanos;
+    private volatile Iterator<Map.Entry<String, Bucket>> sweepCursor;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder rejected = new LongAdder();
+
+    public UserRateLimiter(double permitsPerSecond, int burst, Duration idleTimeout) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1L, (long) (1_000_000_000L / permitsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.nextSweepNanos = System.nanoTime() + idleTimeoutNanos;
+    }
+
+    /**
+     * Takes {@code permits} from the user's bucket if they are available right now; never blocks.
+     *
+     * @throws IllegalArgumentException if permits is not positive (a negative cost would hand out credit)
+     */
+    public boolean tryAcquire(String userId, int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive: " + permits);
+        }
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(userId);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(userId, k -> new Bucket(now));
+        }
+
+        long cost = intervalNanos * permits;
+        boolean acquired;
+        while (true) {
+            long state = bucket.get();
+            long tat = state - now < 0 ? now : state;
+            long next = tat + cost;
+            if (next - now > burstNanos) {
+                acquired = false;
+                break;
+            }
+            if (bucket.compareAndSet(state, next)) {
+                acquired = true;
+                break;
+            }
+        }
+
+        if (!acquired) {
+            rejected.increment();
+        }
+        maybeSweep(now);
+        return acquired;
+    }
+
+    private void maybeSweep(long now) {
+        if (sweepCursor == null && now - nextSweepNanos < 0) {
+            return;
+        }
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Iterator<Map.Entry<String, Bucket>> cursor = sweepCursor;
+            if (cursor == null) {
+                if (now - nextSweepNanos < 0) {
+                    // Another thread finished the sweep in the meantime
+                    return;
+                }
+                cursor = buckets.entrySet().iterator();
+            }
+            for (int i = 0; i < SWEEP_BATCH && cursor.hasNext(); i++) {
+                long state = cursor.next().getValue().get();
+                // A concurrent acquire racing with removal can at worst be granted one extra burst
+                if (now - state > idleTimeoutNanos) {
+                    cursor.remove();
+                }
+            }
+            if (cursor.hasNext()) {
+                sweepCursor = cursor;
+            } else {
+                sweepCursor = null;
+                nextSweepNanos = now + idleTimeoutNanos;
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    public int trackedUsers() {
+        return buckets.size();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    // Load demo: 64 threads hammering 10k users, prints throughput and live bucket count
+    public static void main(String[] args) throws InterruptedException {
+        UserRateLimiter limiter = new UserRateLimiter(50, 100, Duration.ofSeconds(2));
+        int threads = 64;
+        long runNanos = Duration.ofSeconds(5).toNanos();
+        LongAdder calls = new LongAdder();
+        LongAdder granted = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                String[] users = new String[10_000];
+                for (int i = 0; i < users.length; i++) {
+                    users[i] = "user-" + i;
+                }
+                long end = System.nanoTime() + runNanos;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (end - System.nanoTime() > 0) {
+                    if (limiter.tryAcquire(users[random.nextInt(users.length)], 1)) {
+                        granted.increment();
+                    }
+                    calls.increment();
+                }
+                done.countDown();
+            }, "Limiter-" + t).start();
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Calls/s: " + (long) (calls.sum() / seconds) + ", granted/s: " + (long) (granted.sum() / seconds)
+                + ", rejected: " + limiter.rejectedCount() + ", live buckets: " + limiter.trackedUsers());
+        // A drained bucket's arrival time runs up to burst / rate = 2s ahead, so it expires 2s idle after that
+        Thread.sleep(4_100);
+        // The sweep advances 64 buckets per call, so 10k idle users are gone after about 160 calls
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire("late-user", 1);
+        }
+        System.out.println("After idle timeout and 200 calls, live buckets: " + limiter.trackedUsers());
+    }
+}
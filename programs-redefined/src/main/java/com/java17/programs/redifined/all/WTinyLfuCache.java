@@ -0,0 +1,357 @@
+package com.java17.programs.redifined.all;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-safe bounded cache with Window-TinyLFU eviction, which keeps its hit rate through one-off scans that
+ * flush a pure LRU.
+ *
+ *   window    (1% of capacity)  LRU that every new entry enters; gives bursty new keys a chance to prove themselves
+ *   probation (main, 20%)       entries that left the window, or were demoted from protected
+ *   protected (main, 80%)       entries hit again while on probation
+ *
+ * When the cache is over capacity, the entry that most recently fell out of the window (the candidate) competes
+ * with the least recently used probation entry (the victim): whichever the {@link FrequencySketch} has seen less
+ * often is evicted. A key scanned once has frequency 1, so it never displaces an entry that is actually popular.
+ * The sketch halves its counters periodically, so formerly popular keys lose that protection over time.
+ *
+ * Concurrency works like {@link ConcurrentLRUCache}: reads are a map lookup plus a lossy striped read buffer,
+ * replayed onto the queues (and the sketch) under a try-lock; writes take the eviction lock.
+ */
+public class WTinyLfuCache<K, V> {
+
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        // Guarded by evictionLock; queue is 0 once the node has been evicted or removed
+        Node<K, V> prev;
+        Node<K, V> next;
+        int queue;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Intrusive LRU list over the nodes' prev/next fields: first is least, last most recently used.
+     */
+    static final class AccessOrderDeque<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+        int size;
+
+        void addLast(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final ConcurrentLRUCache.ReadBuffer<Node<K, V>>[] readBuffers;
+    private final int readBufferMask;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int capacity;
+    private final int maxWindow;
+    private final int maxProtected;
+
+    // Guarded by evictionLock
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedQueue = new AccessOrderDeque<>();
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public WTinyLfuCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxWindow = Math.max(1, capacity / 100);
+        this.maxProtected = (int) ((capacity - maxWindow) * 0.8);
+        this.sketch = new FrequencySketch(capacity);
+        this.data = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        int stripes = Math.min(64, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.readBuffers = (ConcurrentLRUCache.ReadBuffer<Node<K, V>>[]) new ConcurrentLRUCache.ReadBuffer<?>[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ConcurrentLRUCache.ReadBuffer<>();
+        }
+        this.readBufferMask = stripes - 1;
+    }
+
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        long id = Thread.currentThread().getId();
+        ConcurrentLRUCache.ReadBuffer<Node<K, V>> buffer =
+                readBuffers[(int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & readBufferMask];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Inserts or replaces the value. A new key enters the window; it stays cached only if it turns out to be
+     * accessed more often than what it would displace.
+     *
+     * @return the previous value, or null
+     */
+    public V put(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<K, V> existing = data.putIfAbsent(key, node);
+            if (existing != null) {
+                V previous = existing.value;
+                existing.value = value;
+                onAccess(existing);
+                return previous;
+            }
+            sketch.increment(key);
+            node.queue = WINDOW;
+            window.addLast(node);
+            evict();
+            return null;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public V remove(K key) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<K, V> node = data.remove(key);
+            if (node == null) {
+                return null;
+            }
+            queueOf(node).remove(node);
+            node.queue = 0;
+            return node.value;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Caller holds evictionLock
+    private void drainReadBuffers() {
+        for (ConcurrentLRUCache.ReadBuffer<Node<K, V>> buffer : readBuffers) {
+            buffer.drainTo(this::onAccess);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == 0) {
+            // A buffered read of an entry that has since been evicted or removed
+            return;
+        }
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW -> window.moveToBack(node);
+            case PROTECTED -> protectedQueue.moveToBack(node);
+            default -> {
+                // Hit on probation: promote, demoting protected's LRU entry if it is now too big
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                if (protectedQueue.size > maxProtected) {
+                    Node<K, V> demoted = protectedQueue.first;
+                    protectedQueue.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+        }
+    }
+
+    // Caller holds evictionLock
+    private void evict() {
+        // Entries pushed out of the window become admission candidates at the back of probation
+        Node<K, V> candidate = null;
+        while (window.size > maxWindow) {
+            candidate = window.first;
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        while (data.size() > capacity) {
+            Node<K, V> victim = probation.first;
+            if (victim == null) {
+                // Everything is protected or in the window (tiny capacities): fall back to plain LRU
+                victim = protectedQueue.first != null ? protectedQueue.first : window.first;
+            } else if (candidate != null && candidate != victim
+                    && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                // The newcomer is not more popular than the entry it would displace: reject the newcomer,
+                // and let the one that left the window before it compete next
+                Node<K, V> rejected = candidate;
+                candidate = candidate.prev;
+                victim = rejected;
+            }
+            evictNode(victim);
+        }
+    }
+
+    private void evictNode(Node<K, V> node) {
+        queueOf(node).remove(node);
+        node.queue = 0;
+        data.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private AccessOrderDeque<K, V> queueOf(Node<K, V> node) {
+        return switch (node.queue) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            default -> protectedQueue;
+        };
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        evictionLock.lock();
+        try {
+            return String.format("size=%d/%d (window=%d, probation=%d, protected=%d), hitRate=%.3f",
+                    data.size(), capacity, window.size, probation.size, protectedQueue.size, getHitRate());
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Trace replay: hit rate vs an LRU of the same capacity, on a Zipfian trace and on one with catalog crawls
+    public static void main(String[] args) {
+        int keys = 100_000;
+        int accesses = 2_000_000;
+        int capacity = Integer.getInteger("capacity", 2_000);
+        int[] zipf = zipfTrace(keys, accesses, 0.9);
+
+        // Zipfian traffic, interrupted every 100k accesses by a crawl of 20k catalog keys seen only once
+        int[] scans = new int[accesses];
+        int next = keys;
+        for (int i = 0; i < accesses; i++) {
+            scans[i] = i % 100_000 < 80_000 ? zipf[i] : next++;
+        }
+
+        for (int[] trace : new int[][]{zipf, scans}) {
+            String name = trace == zipf ? "Zipfian (s=0.9)" : "Zipfian + scans";
+            WTinyLfuCache<Integer, Integer> tinyLfu = new WTinyLfuCache<>(capacity);
+            ThreadSafeLRUCacheWithReentrantReadWriteLock<Integer, Integer> lru =
+                    new ThreadSafeLRUCacheWithReentrantReadWriteLock<>(capacity);
+            double tinyLfuHitRate = replay(trace, tinyLfu::get, k -> tinyLfu.put(k, k));
+            double lruHitRate = replay(trace, lru::get, k -> lru.put(k, k));
+            System.out.printf("%-16s capacity %,d: W-TinyLFU %5.1f%%, LRU %5.1f%%%n", name, capacity,
+                    tinyLfuHitRate * 100, lruHitRate * 100);
+        }
+    }
+
+    private static double replay(int[] trace, IntFunction<Integer> get, IntConsumer put) {
+        long hits = 0;
+        for (int key : trace) {
+            if (get.apply(key) != null) {
+                hits++;
+            } else {
+                put.accept(key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static int[] zipfTrace(int keys, int accesses, double exponent) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < keys; i++) {
+            cdf[i] /= sum;
+        }
+        int[] trace = new int[accesses];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < accesses; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble());
+            trace[i] = rank < 0 ? -rank - 1 : rank;
+        }
+        return trace;
+    }
+}
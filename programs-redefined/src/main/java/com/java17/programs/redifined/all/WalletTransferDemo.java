@@ -0,0 +1,79 @@
+package com.java17.programs.redifined.all;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress check for ConcurrentUtil.withUserLocks: random transfers between 10k wallets from many threads.
+ *
+ * Every transfer locks both wallets (in random argument order, which would deadlock with naive nested locking).
+ * At the end the total balance must be unchanged, and a watchdog reports any deadlocked threads via ThreadMXBean.
+ */
+public class WalletTransferDemo {
+
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = 10_000;
+        int threads = 16;
+        long runMillis = 5_000;
+        long[] balances = new long[accounts];
+        for (int i = 0; i < accounts; i++) {
+            balances[i] = 1_000;
+        }
+        long expectedTotal = 1_000L * accounts;
+
+        for (UserLockRegistry.Mode mode : UserLockRegistry.Mode.values()) {
+            ConcurrentUtilProperties properties = new ConcurrentUtilProperties();
+            properties.getUserLock().setMode(mode);
+            properties.getUserLock().setStripes(256);
+            ConcurrentUtil util = new ConcurrentUtil(properties);
+
+            LongAdder transfers = new LongAdder();
+            CountDownLatch done = new CountDownLatch(threads);
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(runMillis);
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (end - System.nanoTime() > 0) {
+                        int from = random.nextInt(accounts);
+                        int to = random.nextInt(accounts);
+                        if (from == to) {
+                            continue;
+                        }
+                        long amount = random.nextInt(50);
+                        util.withUserLocks(List.of("wallet-" + from, "wallet-" + to), () -> {
+                            if (balances[from] >= amount) {
+                                balances[from] -= amount;
+                                balances[to] += amount;
+                            }
+                            return null;
+                        });
+                        transfers.increment();
+                    }
+                    done.countDown();
+                }, "Transfer-" + t).start();
+            }
+
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            while (!done.await(1, TimeUnit.SECONDS)) {
+                long[] deadlocked = threadBean.findDeadlockedThreads();
+                if (deadlocked != null) {
+                    System.out.println("DEADLOCK detected between " + deadlocked.length + " threads");
+                    System.exit(1);
+                }
+            }
+
+            long total = 0;
+            for (long balance : balances) {
+                total += balance;
+            }
+            System.out.printf("%-17s %,d transfers/s, total balance %s%n", mode,
+                    transfers.sum() * 1000 / runMillis, total == expectedTotal ? "conserved" : "BROKEN: " + total);
+            util.shutdown();
+        }
+    }
+}
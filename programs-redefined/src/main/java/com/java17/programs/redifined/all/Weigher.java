@@ -0,0 +1,26 @@
+package com.java17.programs.redifined.all;
+
+import java.lang.FunctionalInterface;
+
+/**
+ * Cost of a cache entry counted against a weight-bounded cache's maximum, typically its approximate size in bytes.
+ *
+ * Called once when the entry is put, so it should be cheap and must not depend on state that changes later.
+ * To actually bound the heap it has to cover what the entry keeps reachable: the value's payload plus a
+ * rough per-entry overhead for the key, the node and the map slot.
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * @return the entry's weight, zero or more
+     */
+    int weigh(K key, V value);
+
+    /**
+     * Every entry weighs 1, so the maximum weight is a maximum number of entries.
+     */
+    static <K, V> Weigher<K, V> singleton() {
+        return (key, value) -> 1;
+    }
+}